@@ -1,6 +1,12 @@
 package com.example.fibo;
 
-import java.util.function.Function;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.example.util.Measured;
 
@@ -78,34 +84,383 @@ public class Fibo extends Measured {
 		return R[0][0];
 	}
 
+	private static final LinearRecurrence fibonacci = new LinearRecurrence(new long[] { 1, 1 }, new long[] { 0, 1 });
+
 	/** Computes the n'th Fibonacci number with matrix algoritm as before but using
 	 * fast exponentional calculation where A^n is calculated with A^2, A^4, A^8, etc.
+	 * 
+	 * This is the general matrix algorithm of LinearRecurrence for the recurrence F(n) = F(n-1) + F(n-2),
+	 * which throws an ArithmeticException instead of overflowing beyond the 92nd number.
 	 */
 	public static long getFiboWithMatrixLog(int n) {
-		long[][] A = { { 1, 1 }, { 1, 0 } };
-		long[][] R = { { 1, 0 }, { 0, 1 } };
+		return fibonacci.matrixValueAt(n);
+	}
+
+	/** Helper function to multiply 2x2 matrices of BigIntegers. Powers of { {1,1}, {1,0} } are symmetric
+	 * so only [0][0], [0][1] and [1][1] are computed, [1][0] is the same object as [0][1]. */
+	private static BigInteger[][] bmmul(BigInteger A[][], BigInteger B[][]) {
+		BigInteger a = multiply(A[0][0], B[0][0]).add(multiply(A[0][1], B[1][0]));
+		BigInteger b = multiply(A[0][0], B[0][1]).add(multiply(A[0][1], B[1][1]));
+		BigInteger d = multiply(A[1][0], B[0][1]).add(multiply(A[1][1], B[1][1]));
+		return new BigInteger[][] { { a, b }, { b, d } };
+	}
 
-		for (int i = 1; i <= n - 1; i *= 2) {
-			// A now has A^i
+	/** Same as getFiboWithMatrixLog but with BigIntegers so it works beyond the 92nd number */
+	public static BigInteger getBigFiboWithMatrixLog(int n) {
+		if (n == 0)
+			return BigInteger.ZERO;
+
+		BigInteger[][] A = { { BigInteger.ONE, BigInteger.ONE }, { BigInteger.ONE, BigInteger.ZERO } };
+		BigInteger[][] R = { { BigInteger.ONE, BigInteger.ZERO }, { BigInteger.ZERO, BigInteger.ONE } };
+
+		for (int i = 1; i <= n - 1 && i > 0; i <<= 1) {
 			if (((n - 1) & i) == i) {
-				// if n has bit i set then this must be applied in the result
-				R = mmul(R, A);
+				R = bmmul(R, A);
 			}
-			A = mmul(A, A); // calculate next A value A = A^i^2 ( A^2, A^4, A^8,
-							// ..)
+			if ((long) i * 2 <= n - 1)
+				A = bmmul(A, A); // don't compute the last square, it's the most expensive one and never used
 		}
-		// We have A^n-1 which has F(n) in [0][0]
 		return R[0][0];
 	}
 
+	/** Fast doubling which only keeps track of F(k) and F(k+1) instead of the whole matrix:
+	 * 
+	 * F(2k) = F(k) * (2*F(k+1) - F(k))
+	 * F(2k+1) = F(k)^2 + F(k+1)^2
+	 * 
+	 * Walking the bits of n from the top we go from k to 2k or 2k+1 in every step which is three
+	 * multiplications instead of the eight of a matrix square. For large numbers the three are independent so they
+	 * run in parallel.
+	 */
+	public static BigInteger getBigFiboWithDoubling(int n) {
+		return getBigFiboPairWithDoubling(n)[0];
+	}
+
+	/** F(n) and F(n+1) with the same fast doubling, for callers going on from n */
+	public static BigInteger[] getBigFiboPairWithDoubling(int n) {
+		assert n >= 0;
+
+		BigInteger a = BigInteger.ZERO; // F(k)
+		BigInteger b = BigInteger.ONE; // F(k+1)
+
+		for (int bit = Integer.highestOneBit(n); bit > 0; bit >>>= 1) {
+			BigInteger[] p = doublingProducts(a, b);
+			BigInteger f2k = p[0];
+			BigInteger f2k1 = p[1].add(p[2]);
+
+			if ((n & bit) != 0) {
+				a = f2k1;
+				b = f2k.add(f2k1);
+			} else {
+				a = f2k;
+				b = f2k1;
+			}
+		}
+		return new BigInteger[] { a, b };
+	}
+
+	/** Operands above this many bits are multiplied in parallel */
+	private static final int PARALLEL_BITS = 1 << 16;
+
+	/** Computes F(k) * (2*F(k+1) - F(k)), F(k)^2 and F(k+1)^2 in parallel for large numbers */
+	private static BigInteger[] doublingProducts(BigInteger a, BigInteger b) {
+		BigInteger c = b.shiftLeft(1).subtract(a);
+		if (a.bitLength() < PARALLEL_BITS)
+			return new BigInteger[] { a.multiply(c), a.multiply(a), b.multiply(b) };
+
+		ForkJoinTask<BigInteger> f2k = ForkJoinPool.commonPool().submit(() -> multiply(a, c));
+		ForkJoinTask<BigInteger> aa = ForkJoinPool.commonPool().submit(() -> multiply(a, a));
+		BigInteger bb = multiply(b, b);
+		return new BigInteger[] { f2k.join(), aa.join(), bb };
+	}
+
+	/** BigInteger.parallelMultiply() only exists from Java 19, use it when it's there */
+	private static final MethodHandle parallelMultiply = findParallelMultiply();
+
+	private static MethodHandle findParallelMultiply() {
+		try {
+			return MethodHandles.publicLookup().findVirtual(BigInteger.class, "parallelMultiply",
+					MethodType.methodType(BigInteger.class, BigInteger.class));
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/** Multiplies with parallelMultiply() if the operands are large and it's available */
+	private static BigInteger multiply(BigInteger a, BigInteger b) {
+		if (parallelMultiply == null || a.bitLength() < PARALLEL_BITS || b.bitLength() < PARALLEL_BITS)
+			return a.multiply(b);
+		try {
+			return (BigInteger) parallelMultiply.invokeExact(a, b);
+		} catch (Throwable e) {
+			throw new IllegalStateException("parallelMultiply failed", e);
+		}
+	}
+
+	/** F(n) mod m for any n up to Long.MAX_VALUE and 1 <= m. The same fast doubling as getBigFiboWithDoubling
+	 * but everything is reduced mod m so it fits in a long and nothing is allocated.
+	 * 
+	 * The fibonacci numbers mod m repeat with the Pisano period so n is first reduced by the period, the periods are
+	 * cached per modulus (for moduli up to PISANO_LIMIT).
+	 */
+	public static long getFiboMod(long n, long m) {
+		assert n >= 0 && m > 0;
+
+		long period = pisanoPeriod(m);
+		if (period > 0)
+			n %= period;
+		return fiboMod(n, m);
+	}
+
+	/** Fast doubling mod m without the period */
+	static long fiboMod(long n, long m) {
+		if (m > 1L << 31 && (m & 1) == 1)
+			return fiboMontgomery(n, m);
+
+		long a = 0; // F(k)
+		long b = 1 % m; // F(k+1)
+
+		for (long bit = Long.highestOneBit(n); bit != 0; bit >>>= 1) {
+			long f2k = mulMod(a, subMod(addMod(b, b, m), a, m), m);
+			long f2k1 = addMod(mulMod(a, a, m), mulMod(b, b, m), m);
+
+			if ((n & bit) != 0) {
+				a = f2k1;
+				b = addMod(f2k, f2k1, m);
+			} else {
+				a = f2k;
+				b = f2k1;
+			}
+		}
+		return a;
+	}
+
+	/** Same fast doubling for large odd moduli but in Montgomery form: every x is kept as x * 2^64 mod m which
+	 * turns the division of mulMod into two multiplications. Additions work the same in this form. */
+	private static long fiboMontgomery(long n, long m) {
+		// -m^-1 mod 2^64 with Newton's iteration, every step doubles the correct bits
+		long inv = m;
+		for (int i = 0; i < 5; i++)
+			inv *= 2 - m * inv;
+		long negInv = -inv;
+
+		long a = 0;
+		long b = remainder128(1, 0, m); // 1 * 2^64 mod m
+
+		for (long bit = Long.highestOneBit(n); bit != 0; bit >>>= 1) {
+			long f2k = montgomeryMul(a, subMod(addMod(b, b, m), a, m), m, negInv);
+			long f2k1 = addMod(montgomeryMul(a, a, m, negInv), montgomeryMul(b, b, m, negInv), m);
+
+			if ((n & bit) != 0) {
+				a = f2k1;
+				b = addMod(f2k, f2k1, m);
+			} else {
+				a = f2k;
+				b = f2k1;
+			}
+		}
+		return montgomeryMul(a, 1, m, negInv); // back from Montgomery form
+	}
+
+	/** a * b / 2^64 mod m (Montgomery reduction) for 0 <= a, b < m < 2^63 and m odd */
+	private static long montgomeryMul(long a, long b, long m, long negInv) {
+		long lo = a * b;
+		long hi = Math.multiplyHigh(a, b);
+		long u = lo * negInv; // lo + u * m is divisible by 2^64
+		long uh = Math.multiplyHigh(u, m) + ((u >> 63) & m); // unsigned high half of u * m
+		long r = hi + uh + (lo != 0 ? 1 : 0); // carry of the low halves, < 2m
+		return Long.compareUnsigned(r, m) >= 0 ? r - m : r;
+	}
+
+	/** (a + b) mod m for 0 <= a, b < m without overflowing */
+	static long addMod(long a, long b, long m) {
+		long s = a - (m - b);
+		return s < 0 ? s + m : s;
+	}
+
+	/** (a - b) mod m for 0 <= a, b < m */
+	static long subMod(long a, long b, long m) {
+		long s = a - b;
+		return s < 0 ? s + m : s;
+	}
+
+	/** (a * b) mod m for 0 <= a, b < m. The product is 128 bits: the high half comes from Math.multiplyHigh and the
+	 * 128 bit number is divided by m with two 64 bit divisions (Knuth's algorithm D with 32 bit digits). */
+	static long mulMod(long a, long b, long m) {
+		if (m <= 1L << 31)
+			return a * b % m; // fits in 62 bits
+
+		long lo = a * b;
+		long hi = Math.multiplyHigh(a, b); // a, b < 2^63 so the product is positive and hi < m
+		if (hi == 0)
+			return Long.remainderUnsigned(lo, m);
+		return remainder128(hi, lo, m);
+	}
+
+	/** (hi * 2^64 + lo) mod m where hi < m */
+	private static long remainder128(long hi, long lo, long m) {
+		final long b = 1L << 32;
+
+		// Normalize so the top bit of the divisor is set
+		int s = Long.numberOfLeadingZeros(m);
+		long v = m << s;
+		long vn1 = v >>> 32;
+		long vn0 = v & 0xFFFFFFFFL;
+
+		long un32 = s == 0 ? hi : (hi << s) | (lo >>> (64 - s));
+		long un10 = lo << s;
+		long un1 = un10 >>> 32;
+		long un0 = un10 & 0xFFFFFFFFL;
+
+		// First 32 bit digit of the quotient
+		long q1 = Long.divideUnsigned(un32, vn1);
+		long rhat = un32 - q1 * vn1;
+		while (Long.compareUnsigned(q1, b) >= 0 || Long.compareUnsigned(q1 * vn0, b * rhat + un1) > 0) {
+			q1--;
+			rhat += vn1;
+			if (Long.compareUnsigned(rhat, b) >= 0)
+				break;
+		}
+		long un21 = un32 * b + un1 - q1 * v;
+
+		// Second digit, we only need the remainder
+		long q0 = Long.divideUnsigned(un21, vn1);
+		rhat = un21 - q0 * vn1;
+		while (Long.compareUnsigned(q0, b) >= 0 || Long.compareUnsigned(q0 * vn0, b * rhat + un0) > 0) {
+			q0--;
+			rhat += vn1;
+			if (Long.compareUnsigned(rhat, b) >= 0)
+				break;
+		}
+		return (un21 * b + un0 - q0 * v) >>> s;
+	}
+
+	/** Periods are only computed for moduli up to this, factoring by trial division gets too slow after */
+	private static final long PISANO_LIMIT = 1L << 32;
+
+	/** 2-way set associative cache of the Pisano periods: a modulus goes to a pair of slots, a new one goes into the
+	 * first and pushes the one there to the second, so two hot moduli sharing a pair both stay. The entries are
+	 * immutable so a reader always gets a modulus with its own period, racing writers can only lose an entry. */
+	private static final int PISANO_CACHE_SIZE = 1024;
+	private static final AtomicReferenceArray<PisanoEntry> pisanoCache = new AtomicReferenceArray<PisanoEntry>(PISANO_CACHE_SIZE);
+
+	private static final class PisanoEntry {
+		final long m;
+		final long period;
+
+		PisanoEntry(long m, long period) {
+			this.m = m;
+			this.period = period;
+		}
+	}
+
+	/** The Pisano period of m: the fibonacci numbers mod m repeat after this many steps. Returns 0 if m is too large
+	 * to compute it. */
+	public static long pisanoPeriod(long m) {
+		if (m > PISANO_LIMIT)
+			return 0;
+		if (m == 1)
+			return 1;
+
+		int slot = (int) ((m * 0x9E3779B97F4A7C15L) >>> 55) << 1; // the first of a pair, PISANO_CACHE_SIZE = 2^10
+		PisanoEntry first = pisanoCache.get(slot);
+		if (first != null && first.m == m)
+			return first.period;
+		PisanoEntry second = pisanoCache.get(slot + 1);
+		if (second != null && second.m == m)
+			return second.period;
+
+		long value = computePisano(m);
+		if (first != null)
+			pisanoCache.set(slot + 1, first);
+		pisanoCache.set(slot, new PisanoEntry(m, value));
+		return value;
+	}
+
+	/** The period of m is the lcm of the periods of its prime powers and the period of p^k divides p^(k-1)
+	 * times the period of p. It's only a multiple of the real period if Wall's conjecture fails but any
+	 * multiple of the period works for reducing n. Returns 0 on overflow. */
+	private static long computePisano(long m) {
+		long period = 1;
+		long rest = m;
+		for (long p = 2; p * p <= rest; p++) {
+			if (rest % p == 0) {
+				long pk = 1;
+				while (rest % p == 0) {
+					rest /= p;
+					pk *= p;
+				}
+				period = lcm(period, pisanoPrime(p) * (pk / p));
+			}
+		}
+		if (rest > 1)
+			period = lcm(period, pisanoPrime(rest));
+		return period;
+	}
+
+	/** Period of a prime p. It divides p - 1 if p = +-1 mod 5 and 2(p+1) if p = +-2 mod 5 so starting from there
+	 * we divide out prime factors as long as what's left is still a period. */
+	private static long pisanoPrime(long p) {
+		if (p == 5)
+			return 20;
 
+		long d = (p % 5 == 1 || p % 5 == 4) ? p - 1 : 2 * (p + 1);
+		long rest = d;
+		for (long q = 2; q * q <= rest; q++) {
+			if (rest % q == 0) {
+				while (rest % q == 0)
+					rest /= q;
+				while (d % q == 0 && isPisanoPeriod(d / q, p))
+					d /= q;
+			}
+		}
+		if (rest > 1 && d % rest == 0 && isPisanoPeriod(d / rest, p))
+			d /= rest;
+		return d;
+	}
+
+	private static boolean isPisanoPeriod(long d, long m) {
+		return fiboMod(d, m) == 0 && fiboMod(d + 1, m) == 1 % m;
+	}
+
+	private static long lcm(long a, long b) {
+		long x = a, y = b;
+		while (y != 0) {
+			long t = x % y;
+			x = y;
+			y = t;
+		}
+		try {
+			return Math.multiplyExact(a / x, b);
+		} catch (ArithmeticException e) {
+			return 0;
+		}
+	}
 
 	public static void main(String[] args) {
 		measure("with math",Fibo::getFiboWithMath, 92);
-		measure("naive",Fibo::getFiboNaive, 90);
+		measure("naive",Fibo::getFiboNaive, 40); // exponential, 90 would never finish
 		measure("linear",Fibo::getFiboWithLinear, 92);
 		measure("matrix multiply",Fibo::getFiboWithMatrix, 92);
 		measure("matrix fast exp",Fibo::getFiboWithMatrixLog, 92);
+		measure("big matrix fast exp",Fibo::getBigFiboWithMatrixLog, 92);
+		measure("big doubling",Fibo::getBigFiboWithDoubling, 92);
+
+		// Modular for huge n, many queries
+		measure("mod 1000000007 of F(Long.MAX_VALUE)", () -> getFiboMod(Long.MAX_VALUE, 1000000007L));
+		measure("mod 2^61-1 of F(Long.MAX_VALUE)", () -> getFiboMod(Long.MAX_VALUE, (1L << 61) - 1));
+		measure("10M mod queries", () -> {
+			long sum = 0;
+			for (long i = 0; i < 10000000; i++)
+				sum += getFiboMod(Long.MAX_VALUE - i * 7919, 1000003 + (i & 7));
+			return sum;
+		});
+
+		// Way beyond long, only print the size of the results
+		int big = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		System.out.println("Same results: " + getBigFiboWithMatrixLog(1000).equals(getBigFiboWithDoubling(1000)));
+		measure("big matrix fast exp bit length of F(" + big + ")", () -> getBigFiboWithMatrixLog(big).bitLength());
+		measure("big doubling bit length of F(" + big + ")", () -> getBigFiboWithDoubling(big).bitLength());
 	}
 
 }
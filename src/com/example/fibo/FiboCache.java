@@ -0,0 +1,213 @@
+package com.example.fibo;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.example.util.Measured;
+
+/** A cache of Fibonacci numbers for callers asking for lots of nearby numbers.
+ *
+ * Everything that fits in a long (up to the 92nd number) is a precomputed table. Beyond that the cache keeps
+ * checkpoints, pairs of F(k) and F(k+1), in a skip list. A number is computed by walking forward from the closest
+ * checkpoint below it if that's near enough, otherwise with fast doubling. The result becomes a new checkpoint unless
+ * there is one within MIN_DISTANCE, so asking for nearby numbers doesn't fill the cache with them.
+ *
+ * Readers never lock: the table is immutable and the skip list is concurrent. F(n) has about 0.7n bits so the cache
+ * is bounded by the total bit length of the checkpoints rather than their number: when it's over the limit the
+ * least recently used ones are evicted down to three quarters of it (by a single thread at a time).
+ *
+ * @author jozseforosz
+ *
+ */
+public class FiboCache extends Measured {
+
+	/** F(0)..F(92), all Fibonacci numbers that fit in a long */
+	private static final long[] table = new long[93];
+
+	static {
+		table[1] = 1;
+		for (int i = 2; i < table.length; i++)
+			table[i] = table[i - 1] + table[i - 2];
+	}
+
+	/** Walking forward from a checkpoint is cheaper than doubling if it's at most this many additions */
+	private static final int WALK_LIMIT = 1024;
+
+	/** Checkpoints are at least this far apart */
+	private static final int MIN_DISTANCE = 64;
+
+	private static class Checkpoint {
+		final BigInteger f; // F(n)
+		final BigInteger f1; // F(n+1)
+		final long bits; // of the two numbers
+		volatile long lastUsed;
+
+		Checkpoint(BigInteger f, BigInteger f1, long lastUsed) {
+			this.f = f;
+			this.f1 = f1;
+			this.bits = (long) f.bitLength() + f1.bitLength();
+			this.lastUsed = lastUsed;
+		}
+	}
+
+	private final long maxBits;
+	private final ConcurrentSkipListMap<Integer, Checkpoint> checkpoints = new ConcurrentSkipListMap<Integer, Checkpoint>();
+	private final AtomicLong bits = new AtomicLong();
+	private final AtomicLong clock = new AtomicLong();
+	private final Object evictionLock = new Object();
+
+	/** A cache keeping checkpoints of at most maxBits bits in total */
+	public FiboCache(long maxBits) {
+		assert maxBits > 0;
+		this.maxBits = maxBits;
+	}
+
+	/** A cache of 32MB of checkpoints */
+	public FiboCache() {
+		this(1L << 28);
+	}
+
+	/** F(n) as a long, throws ArithmeticException beyond the 92nd number */
+	public static long getLong(int n) {
+		assert n >= 0;
+		if (n >= table.length)
+			throw new ArithmeticException("F(" + n + ") does not fit in a long");
+		return table[n];
+	}
+
+	/** F(n) of any size */
+	public BigInteger get(int n) {
+		return pairAt(n)[0];
+	}
+
+	/** F(from), F(from+1), ... F(to-1) one by one. Only the first one is looked up, the rest are a single addition each. */
+	public Stream<BigInteger> range(int from, int to) {
+		assert from >= 0 && from <= to;
+
+		Iterator<BigInteger> it = new Iterator<BigInteger>() {
+			int n = from;
+			BigInteger f;
+			BigInteger f1;
+
+			@Override
+			public boolean hasNext() {
+				return n < to;
+			}
+
+			@Override
+			public BigInteger next() {
+				if (n >= to)
+					throw new NoSuchElementException();
+				if (f == null) {
+					BigInteger[] p = pairAt(n);
+					f = p[0];
+					f1 = p[1];
+				} else {
+					BigInteger f2 = f.add(f1);
+					f = f1;
+					f1 = f2;
+				}
+				n++;
+				return f;
+			}
+		};
+		return StreamSupport.stream(Spliterators.spliterator(it, to - from,
+				Spliterator.ORDERED | Spliterator.IMMUTABLE | Spliterator.NONNULL), false);
+	}
+
+	/** Number of checkpoints in the cache */
+	public int size() {
+		return checkpoints.size();
+	}
+
+	/** Total bit length of the checkpoints */
+	public long bits() {
+		return bits.get();
+	}
+
+	/** F(n) and F(n+1) */
+	private BigInteger[] pairAt(int n) {
+		assert n >= 0;
+		if (n + 1 < table.length)
+			return new BigInteger[] { BigInteger.valueOf(table[n]), BigInteger.valueOf(table[n + 1]) };
+
+		Map.Entry<Integer, Checkpoint> e = checkpoints.floorEntry(n);
+		BigInteger f;
+		BigInteger f1;
+		if (e != null && n - e.getKey() <= WALK_LIMIT) {
+			Checkpoint c = e.getValue();
+			c.lastUsed = clock.incrementAndGet();
+			if (e.getKey() == n)
+				return new BigInteger[] { c.f, c.f1 };
+
+			f = c.f;
+			f1 = c.f1;
+			for (int i = e.getKey(); i < n; i++) {
+				BigInteger f2 = f.add(f1);
+				f = f1;
+				f1 = f2;
+			}
+		} else {
+			BigInteger[] p = Fibo.getBigFiboPairWithDoubling(n);
+			f = p[0];
+			f1 = p[1];
+		}
+
+		Integer below = checkpoints.floorKey(n);
+		Integer above = checkpoints.ceilingKey(n);
+		if ((below == null || n - below >= MIN_DISTANCE) && (above == null || above - n >= MIN_DISTANCE))
+			store(n, new Checkpoint(f, f1, clock.incrementAndGet()));
+		return new BigInteger[] { f, f1 };
+	}
+
+	private void store(int n, Checkpoint c) {
+		if (c.bits > maxBits)
+			return; // would evict everything else
+		if (checkpoints.putIfAbsent(n, c) == null && bits.addAndGet(c.bits) > maxBits)
+			evict();
+	}
+
+	/** Removes the least recently used checkpoints until they take at most three quarters of maxBits */
+	private void evict() {
+		synchronized (evictionLock) {
+			if (bits.get() <= maxBits)
+				return; // another thread did it
+
+			List<Map.Entry<Integer, Checkpoint>> all = new ArrayList<Map.Entry<Integer, Checkpoint>>(checkpoints.entrySet());
+			all.sort((a, b) -> Long.compare(a.getValue().lastUsed, b.getValue().lastUsed));
+			for (int i = 0; i < all.size() && bits.get() > maxBits / 4 * 3; i++)
+				if (checkpoints.remove(all.get(i).getKey(), all.get(i).getValue()))
+					bits.addAndGet(-all.get(i).getValue().bits);
+		}
+	}
+
+	public static void main(String[] args) {
+		FiboCache cache = new FiboCache(1L << 24);
+
+		measure("long", FiboCache::getLong, 92);
+		measure("cold 100000 bits", () -> cache.get(100000).bitLength());
+		measure("warm 100001 bits", () -> cache.get(100001).bitLength());
+		measure("same as doubling", () -> cache.get(100500).equals(Fibo.getBigFiboWithDoubling(100500)));
+		measure("range sum of bits 200000..210000", () -> cache.range(200000, 210000).mapToLong(BigInteger::bitLength).sum());
+		measure("range from long to big", () -> cache.range(90, 96).toArray().length);
+
+		// Lots of nearby numbers from many threads, doubling every one of them against the cache
+		measure("20000 nearby with doubling", () -> IntStream.range(0, 20000).parallel()
+				.map(i -> Fibo.getBigFiboWithDoubling(50000 + i % 5000).bitLength()).sum());
+		measure("20000 nearby with the cache", () -> IntStream.range(0, 20000).parallel()
+				.map(i -> cache.get(50000 + i % 5000).bitLength()).sum());
+		System.out.println("Checkpoints " + cache.size() + " of " + cache.bits() + " bits");
+	}
+
+}
@@ -0,0 +1,322 @@
+package com.example.fibo;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import com.example.util.Measured;
+
+/** Evaluates a k'th order linear recurrence
+ *
+ * a(n) = c[0] * a(n-1) + c[1] * a(n-2) + ... + c[k-1] * a(n-k)
+ *
+ * given the coefficients and the initial values a(0)..a(k-1). The fibonacci numbers are c = { 1, 1 } with a(0) = 0,
+ * a(1) = 1 and tribonacci is c = { 1, 1, 1 } etc.
+ *
+ * There are two algorithms:
+ * <li> The generalization of Fibo.getFiboWithMatrixLog: the k x k companion matrix is raised to the n'th power with
+ * fast exponentiation. The matrices are flat long[] arrays and the products go into a spare buffer which is swapped
+ * with the input (double buffering) so nothing is allocated in the loop. O(k^3 log n).
+ * <li> Kitamasa's method: x^n is computed modulo the characteristic polynomial x^k - c[0] x^(k-1) - ... - c[k-1]
+ * and a(n) is the remainder's coefficients applied to the initial values. O(k^2 log n) so it's the one for large k.
+ *
+ * Values can be computed as longs which throw an ArithmeticException if anything overflows, modulo m or as BigIntegers.
+ *
+ * @author jozseforosz
+ *
+ */
+public class LinearRecurrence extends Measured {
+
+	/** Above this order Kitamasa's method beats the matrix */
+	private static final int KITAMASA_ORDER = 3;
+
+	/** Addition and multiplication of the long versions, exact or modular */
+	private interface Arithmetic {
+		long add(long a, long b);
+
+		long mul(long a, long b);
+
+		long of(long a);
+	}
+
+	private static final Arithmetic EXACT = new Arithmetic() {
+		@Override
+		public long add(long a, long b) {
+			return Math.addExact(a, b);
+		}
+
+		@Override
+		public long mul(long a, long b) {
+			return Math.multiplyExact(a, b);
+		}
+
+		@Override
+		public long of(long a) {
+			return a;
+		}
+	};
+
+	private static final class Modular implements Arithmetic {
+		private final long m;
+
+		Modular(long m) {
+			this.m = m;
+		}
+
+		@Override
+		public long add(long a, long b) {
+			return Fibo.addMod(a, b, m);
+		}
+
+		@Override
+		public long mul(long a, long b) {
+			return Fibo.mulMod(a, b, m);
+		}
+
+		@Override
+		public long of(long a) {
+			return Math.floorMod(a, m);
+		}
+	}
+
+	private final int k;
+	private final long[] coefficients;
+	private final long[] initial;
+
+	/**
+	 * @param coefficients c[0]..c[k-1], c[i] is the multiplier of a(n-1-i)
+	 * @param initial a(0)..a(k-1)
+	 */
+	public LinearRecurrence(long[] coefficients, long[] initial) {
+		if (coefficients == null || initial == null || coefficients.length == 0
+				|| coefficients.length != initial.length)
+			throw new IllegalArgumentException("Need the same number (at least one) of coefficients and initial values");
+
+		this.k = coefficients.length;
+		this.coefficients = coefficients.clone();
+		this.initial = initial.clone();
+	}
+
+	public int getOrder() {
+		return k;
+	}
+
+	/** a(n) as a long, throws ArithmeticException if a(n) or anything in the computation overflows */
+	public long valueAt(long n) {
+		return k > KITAMASA_ORDER ? kitamasa(n, EXACT) : matrix(n, EXACT);
+	}
+
+	/** a(n) mod m */
+	public long valueAt(long n, long m) {
+		assert m > 0;
+		Modular mod = new Modular(m);
+		return k > KITAMASA_ORDER ? kitamasa(n, mod) : matrix(n, mod);
+	}
+
+	/** a(n) with the matrix algorithm whatever the order */
+	public long matrixValueAt(long n) {
+		return matrix(n, EXACT);
+	}
+
+	/** a(n) with Kitamasa's method whatever the order */
+	public long kitamasaValueAt(long n) {
+		return kitamasa(n, EXACT);
+	}
+
+	/** The companion matrix M moves the state (a(i+k-1), ..., a(i)) to (a(i+k), ..., a(i+1)) so a(n) is the first
+	 * element of M^(n-k+1) applied to (a(k-1), ..., a(0)) */
+	private long matrix(long n, Arithmetic ar) {
+		assert n >= 0;
+		if (n < k)
+			return ar.of(initial[(int) n]);
+
+		long[] A = new long[k * k];
+		for (int j = 0; j < k; j++)
+			A[j] = ar.of(coefficients[j]);
+		for (int i = 1; i < k; i++)
+			A[i * k + i - 1] = ar.of(1);
+
+		long[] R = new long[k * k];
+		for (int i = 0; i < k; i++)
+			R[i * k + i] = ar.of(1);
+
+		long[] spare = new long[k * k];
+
+		long p = n - k + 1;
+		while (true) {
+			if ((p & 1) == 1) {
+				multiply(R, A, spare, ar);
+				long[] t = R;
+				R = spare;
+				spare = t;
+			}
+			p >>>= 1;
+			if (p == 0)
+				break; // don't square A once more, it would only overflow
+			multiply(A, A, spare, ar);
+			long[] t = A;
+			A = spare;
+			spare = t;
+		}
+
+		long result = 0;
+		for (int j = 0; j < k; j++)
+			result = ar.add(result, ar.mul(R[j], ar.of(initial[k - 1 - j])));
+		return result;
+	}
+
+	/** out = X * Y for flat k x k matrices, out must not be X or Y */
+	private void multiply(long[] X, long[] Y, long[] out, Arithmetic ar) {
+		for (int i = 0; i < k; i++) {
+			for (int j = 0; j < k; j++) {
+				long sum = 0;
+				for (int l = 0; l < k; l++) {
+					long x = X[i * k + l];
+					long y = Y[l * k + j];
+					if (x != 0 && y != 0) // the companion matrix is mostly zeros
+						sum = ar.add(sum, ar.mul(x, y));
+				}
+				out[i * k + j] = sum;
+			}
+		}
+	}
+
+	/** x^n mod the characteristic polynomial gives a(n) = sum r[i] * a(i) */
+	private long kitamasa(long n, Arithmetic ar) {
+		assert n >= 0;
+		if (n < k)
+			return ar.of(initial[(int) n]);
+
+		long[] c = new long[k];
+		for (int j = 0; j < k; j++)
+			c[j] = ar.of(coefficients[j]);
+
+		long[] r = new long[k];
+		long[] product = new long[2 * k - 1];
+		r[0] = ar.of(1); // x^0
+
+		for (long bit = Long.highestOneBit(n); bit != 0; bit >>>= 1) {
+			// r = r^2
+			Arrays.fill(product, 0);
+			for (int i = 0; i < k; i++) {
+				if (r[i] == 0)
+					continue;
+				for (int j = 0; j < k; j++)
+					if (r[j] != 0)
+						product[i + j] = ar.add(product[i + j], ar.mul(r[i], r[j]));
+			}
+			reduce(product, c, ar);
+			System.arraycopy(product, 0, r, 0, k);
+
+			if ((n & bit) != 0) {
+				// r = r * x, only x^k has to be reduced
+				long top = r[k - 1];
+				for (int i = k - 1; i > 0; i--)
+					r[i] = r[i - 1];
+				r[0] = 0;
+				if (top != 0)
+					for (int j = 0; j < k; j++)
+						r[k - 1 - j] = ar.add(r[k - 1 - j], ar.mul(top, c[j]));
+			}
+		}
+
+		long result = 0;
+		for (int i = 0; i < k; i++)
+			if (r[i] != 0)
+				result = ar.add(result, ar.mul(r[i], ar.of(initial[i])));
+		return result;
+	}
+
+	/** Reduces the polynomial p (degree < 2k-1) in place to degree < k using x^k = c[0] x^(k-1) + ... + c[k-1] */
+	private void reduce(long[] p, long[] c, Arithmetic ar) {
+		for (int i = p.length - 1; i >= k; i--) {
+			long t = p[i];
+			if (t == 0)
+				continue;
+			p[i] = 0;
+			// x^i = x^(i-k) * x^k = sum c[j] x^(i-1-j)
+			for (int j = 0; j < k; j++)
+				p[i - 1 - j] = ar.add(p[i - 1 - j], ar.mul(t, c[j]));
+		}
+	}
+
+	/** a(n) as a BigInteger with Kitamasa's method */
+	public BigInteger bigValueAt(long n) {
+		assert n >= 0;
+		if (n < k)
+			return BigInteger.valueOf(initial[(int) n]);
+
+		BigInteger[] c = new BigInteger[k];
+		for (int j = 0; j < k; j++)
+			c[j] = BigInteger.valueOf(coefficients[j]);
+
+		BigInteger[] r = new BigInteger[k];
+		BigInteger[] product = new BigInteger[2 * k - 1];
+		Arrays.fill(r, BigInteger.ZERO);
+		r[0] = BigInteger.ONE;
+
+		for (long bit = Long.highestOneBit(n); bit != 0; bit >>>= 1) {
+			Arrays.fill(product, BigInteger.ZERO);
+			for (int i = 0; i < k; i++) {
+				if (r[i].signum() == 0)
+					continue;
+				// the square is symmetric: r[i]*r[j] appears twice for i != j
+				product[2 * i] = product[2 * i].add(r[i].multiply(r[i]));
+				for (int j = i + 1; j < k; j++)
+					if (r[j].signum() != 0)
+						product[i + j] = product[i + j].add(r[i].multiply(r[j]).shiftLeft(1));
+			}
+			for (int i = product.length - 1; i >= k; i--) {
+				BigInteger t = product[i];
+				if (t.signum() == 0)
+					continue;
+				for (int j = 0; j < k; j++)
+					product[i - 1 - j] = product[i - 1 - j].add(t.multiply(c[j]));
+			}
+			System.arraycopy(product, 0, r, 0, k);
+
+			if ((n & bit) != 0) {
+				BigInteger top = r[k - 1];
+				for (int i = k - 1; i > 0; i--)
+					r[i] = r[i - 1];
+				r[0] = BigInteger.ZERO;
+				for (int j = 0; j < k; j++)
+					r[k - 1 - j] = r[k - 1 - j].add(top.multiply(c[j]));
+			}
+		}
+
+		BigInteger result = BigInteger.ZERO;
+		for (int i = 0; i < k; i++)
+			result = result.add(r[i].multiply(BigInteger.valueOf(initial[i])));
+		return result;
+	}
+
+	public static void main(String[] args) {
+		LinearRecurrence fibo = new LinearRecurrence(new long[] { 1, 1 }, new long[] { 0, 1 });
+		LinearRecurrence tribo = new LinearRecurrence(new long[] { 1, 1, 1 }, new long[] { 0, 0, 1 });
+
+		measure("fibo matrix", fibo::matrixValueAt, 92L);
+		measure("fibo kitamasa", fibo::kitamasaValueAt, 92L);
+		measure("tribonacci", () -> tribo.valueAt(73));
+		measure("tribonacci big", tribo::bigValueAt, 200L);
+		measure("tribonacci mod 1e9+7", () -> tribo.valueAt(Long.MAX_VALUE, 1000000007L));
+
+		try {
+			tribo.valueAt(74);
+		} catch (ArithmeticException e) {
+			System.out.println("Tribonacci 74 overflows: " + e.getMessage());
+		}
+
+		// A large order, a(n) = a(n-1) + a(n-k) mod p, the matrix against kitamasa
+		int order = 64;
+		long[] c = new long[order];
+		long[] init = new long[order];
+		c[0] = 1;
+		c[order - 1] = 1;
+		Arrays.fill(init, 1);
+		LinearRecurrence large = new LinearRecurrence(c, init);
+		final long p = 998244353L;
+		measure("order " + order + " kitamasa mod p", () -> large.kitamasa(Long.MAX_VALUE, new Modular(p)));
+		measure("order " + order + " matrix mod p", () -> large.matrix(Long.MAX_VALUE, new Modular(p)));
+	}
+
+}
@@ -0,0 +1,293 @@
+package com.example.permute;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import com.example.util.Measured;
+
+/** The k element subsets of {0..n-1}, ranked and unranked with the combinatorial number system (combinadic).
+ *
+ * A sorted combination c[0] < c[1] < ... < c[k-1] has the index C(c[0], 1) + C(c[1], 2) + ... + C(c[k-1], k), which
+ * numbers the combinations 0..C(n,k)-1 in colexicographic order (compared from the largest element). Unranking picks
+ * the elements from the largest down: c[i-1] is the largest c with C(c, i) <= the remaining index.
+ *
+ * All binomials C(c, i) for c <= n and i <= k are a table built once, so rank is k lookups and unrank is k binary
+ * searches in it without any arithmetic that could overflow. Table entries that don't fit in a long are saturated, only
+ * C(n,k) itself has to fit. The instance is immutable and can be shared between threads.
+ *
+ * This is what makeLotteryNumbers needs: a random ticket is a random index in [0, C(n,k)) unranked, instead of
+ * unranking a whole permutation and dropping most of it.
+ *
+ * @author jozseforosz
+ *
+ */
+public class Combinations extends Measured {
+
+	private final int n;
+	private final int k;
+	private final long count;
+
+	/** binomial[i][c] = C(c, i), Long.MAX_VALUE if it's too big */
+	private final long[][] binomial;
+
+	public Combinations(int n, int k) {
+		if (k < 0 || n < k)
+			throw new IllegalArgumentException("Cannot choose " + k + " of " + n);
+
+		this.n = n;
+		this.k = k;
+		this.binomial = new long[k + 1][n + 1];
+		Arrays.fill(binomial[0], 1);
+		for (int i = 1; i <= k; i++)
+			for (int c = i; c <= n; c++) {
+				long sum = binomial[i][c - 1] + binomial[i - 1][c - 1];
+				binomial[i][c] = sum < 0 ? Long.MAX_VALUE : sum;
+			}
+
+		if (binomial[k][n] == Long.MAX_VALUE)
+			throw new ArithmeticException("C(" + n + "," + k + ") does not fit in a long");
+		this.count = binomial[k][n];
+	}
+
+	/** C(n, k), the number of combinations */
+	public long count() {
+		return count;
+	}
+
+	public int getN() {
+		return n;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	/** The index of a combination given as k distinct numbers from 0..n-1 in increasing order */
+	public long rank(int[] combination) {
+		if (combination.length != k)
+			throw new IllegalArgumentException("Combination must have " + k + " elements");
+
+		long index = 0;
+		for (int i = 0; i < k; i++) {
+			int c = combination[i];
+			if (c < 0 || c >= n || (i > 0 && c <= combination[i - 1]))
+				throw new IllegalArgumentException("Not an increasing combination of 0.." + (n - 1) + ": "
+						+ Arrays.toString(combination));
+			index += binomial[i + 1][c];
+		}
+		return index;
+	}
+
+	/** Writes the combination at the index, in increasing order, into out[offset..offset+k-1]. Allocates nothing. */
+	public void unrank(long index, int[] out, int offset) {
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException("Index " + index + " is outside 0 - " + count);
+
+		int hi = n; // every element is below the one picked before
+		for (int i = k; i > 0; i--) {
+			// Largest c in [i-1, hi) with C(c, i) <= index, C(i-1, i) is 0 so there is always one
+			long[] row = binomial[i];
+			int lo = i - 1;
+			int top = hi - 1;
+			while (lo < top) {
+				int mid = (lo + top + 1) >>> 1;
+				if (row[mid] <= index)
+					lo = mid;
+				else
+					top = mid - 1;
+			}
+			out[offset + i - 1] = lo;
+			index -= row[lo];
+			hi = lo;
+		}
+	}
+
+	public int[] unrank(long index) {
+		int[] out = new int[k];
+		unrank(index, out, 0);
+		return out;
+	}
+
+	/**
+	 * Rearranges an increasing combination of numbers from 0..n-1 into the lexicographically next one in place.
+	 * Returns false (and makes it the first one, 0..k-1) if it was the last one.
+	 */
+	public static boolean nextCombination(int[] a, int n) {
+		int k = a.length;
+		int i = k - 1;
+		while (i >= 0 && a[i] == n - k + i)
+			i--;
+		if (i < 0) {
+			for (int j = 0; j < k; j++)
+				a[j] = j;
+			return false;
+		}
+		a[i]++;
+		for (int j = i + 1; j < k; j++)
+			a[j] = a[j - 1] + 1;
+		return true;
+	}
+
+	/**
+	 * Visits every combination in lexicographic order in a single array, like PermuteNumbers.forEachPermutation.
+	 * The visitor can STOP or return p > 0 to skip the rest of the combinations starting with the current p elements.
+	 *
+	 * @return the number of combinations visited
+	 */
+	public long forEach(IntArrayVisitor v) {
+		int[] a = new int[k];
+		for (int j = 0; j < k; j++)
+			a[j] = j;
+
+		long visited = 0;
+		while (true) {
+			visited++;
+			int skip = v.visit(a);
+			if (skip < 0)
+				return visited;
+			if (skip > 0)
+				for (int j = skip; j < k; j++)
+					a[j] = n - k + j; // the last combination with this prefix
+			if (!nextCombination(a, n))
+				return visited;
+		}
+	}
+
+	/**
+	 * Fills 'out' with count lottery tickets of k numbers from 1..n, each sorted, k ints per ticket. The tickets are
+	 * first..first+count-1 of a random order of all C(n,k) combinations given by the seed, so they are all different, even
+	 * between calls with the same seed and disjoint ranges. Done in parallel, each ticket is independent.
+	 */
+	public void tickets(long seed, long first, int count, int[] out) {
+		tickets(new IndexPermutation(this.count, seed), first, count, out);
+	}
+
+	private void tickets(IndexPermutation order, long first, int count, int[] out) {
+		if (first < 0 || count < 0 || first + count > this.count)
+			throw new IllegalArgumentException("Only " + this.count + " different tickets, cannot make " + first + " - "
+					+ (first + count));
+		if ((long) count * k > out.length)
+			throw new IllegalArgumentException("Buffer is too small for " + count + " tickets");
+
+		IntStream.range(0, count).parallel().forEach(t -> {
+			int at = t * k;
+			unrank(order.permute(first + t), out, at);
+			for (int j = at; j < at + k; j++)
+				out[j]++;
+		});
+	}
+
+	/**
+	 * Writes count different random tickets into a file as big endian ints, k per ticket. The tickets are made in
+	 * blocks into one buffer which is written out through a direct byte buffer.
+	 *
+	 * @return the number of bytes written
+	 */
+	public long writeTickets(Path file, long seed, long count) throws IOException {
+		if (count > this.count)
+			throw new IllegalArgumentException("Only " + this.count + " different tickets, cannot make " + count);
+
+		IndexPermutation order = new IndexPermutation(this.count, seed);
+		int block = Math.max(1, (1 << 20) / Math.max(k, 1));
+		int[] tickets = new int[block * k];
+		ByteBuffer bytes = ByteBuffer.allocateDirect(tickets.length * Integer.BYTES);
+		IntBuffer ints = bytes.asIntBuffer();
+
+		long written = 0;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (long first = 0; first < count; first += block) {
+				int size = (int) Math.min(block, count - first);
+				tickets(order, first, size, tickets);
+
+				ints.clear();
+				ints.put(tickets, 0, size * k);
+				bytes.clear().limit(size * k * Integer.BYTES);
+				while (bytes.hasRemaining())
+					written += channel.write(bytes);
+			}
+		}
+		return written;
+	}
+
+	public static void main(String[] args) throws IOException {
+		Combinations small = new Combinations(5, 3);
+		for (long i = 0; i < small.count(); i++) {
+			int[] c = small.unrank(i);
+			System.out.println(i + " " + Arrays.toString(c) + " rank " + small.rank(c));
+		}
+		small.forEach(c -> {
+			System.out.println(Arrays.toString(c));
+			return IntArrayVisitor.CONTINUE;
+		});
+
+		// The 5 of 90 lottery
+		Combinations lottery = new Combinations(90, 5);
+		System.out.println("Tickets " + lottery.count());
+
+		final int howMany = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		int[] buffer = new int[howMany * lottery.getK()];
+		measure(howMany + " unique tickets", () -> {
+			lottery.tickets(42, 0, howMany, buffer);
+			return Arrays.toString(Arrays.copyOf(buffer, 5));
+		});
+		// The old way: a random permutation of all 90 numbers and keep the first 5
+		final int[] numbers = new int[90];
+		final long permutations = 90L * 89 * 88 * 87 * 86;
+		measure(howMany + " tickets with permutationAt", () -> {
+			long sum = 0;
+			for (int i = 0; i < howMany; i++)
+				sum += PermuteNumbers.permutationAt(i * 7919L % permutations, numbers)[0];
+			return sum;
+		});
+
+		// Are they unique?
+		measure("duplicates", () -> {
+			boolean[] seen = new boolean[(int) lottery.count()];
+			int duplicates = 0;
+			int[] c = new int[5];
+			for (int t = 0; t < howMany; t++) {
+				for (int j = 0; j < 5; j++)
+					c[j] = buffer[t * 5 + j] - 1;
+				int idx = (int) lottery.rank(c);
+				if (seen[idx])
+					duplicates++;
+				seen[idx] = true;
+			}
+			return duplicates;
+		});
+
+		measure("count the 6 of 45 tickets without 2 consecutive numbers", () -> {
+			long[] found = new long[1];
+			new Combinations(45, 6).forEach(c -> {
+				for (int i = 1; i < c.length; i++)
+					if (c[i] == c[i - 1] + 1)
+						return i + 1; // every combination with this prefix has them
+				found[0]++;
+				return IntArrayVisitor.CONTINUE;
+			});
+			return found[0];
+		});
+
+		Path file = Files.createTempFile("tickets", ".bin");
+		try {
+			measure("writing " + howMany + " tickets to a file", () -> {
+				try {
+					return lottery.writeTickets(file, 7, howMany);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+}
@@ -0,0 +1,295 @@
+package com.example.permute;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import com.example.util.Measured;
+
+/** Writes all expansions of a PatternExpansion into a file, one per line, without making a String of any of them.
+ *
+ * The literals and the values are encoded to bytes once, then the expansions are built in a byte array with the same
+ * odometer as PatternExpansion and copied into a direct ByteBuffer which goes to the file through a FileChannel, or
+ * straight into a memory mapped region of the file.
+ *
+ * The byte offset of any expansion can be computed: the star w takes the values in blocks of v^(n-1-w) indexes
+ * repeating after v^(n-w), so the length of everything before an index is a few multiplications per star. That splits
+ * the file into shards of disjoint index ranges at exact byte offsets, which are written in parallel with positional
+ * writes or separate mappings, no thread waits for another.
+ *
+ * @author jozseforosz
+ *
+ */
+public class ExpansionWriter extends Measured {
+
+	private static final byte NEWLINE = '\n';
+
+	/** Size of the direct buffer of every shard */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/** Size of a mapped region, the file is mapped in pieces of this size */
+	private static final long MAP_SIZE = 1L << 30;
+
+	private final PatternExpansion expansion;
+	private final byte[][] literals;
+	private final byte[][] values;
+	private final int fixedLength; // literals and the newline, same in every line
+	private final int maxLength; // longest line
+	private final long[] lengthBefore; // lengthBefore[d] = total length of values 0..d-1
+
+	public ExpansionWriter(PatternExpansion expansion, Charset charset) {
+		this.expansion = expansion;
+
+		String[] lits = expansion.getLiterals();
+		this.literals = new byte[lits.length][];
+		int fixed = 1;
+		for (int i = 0; i < lits.length; i++) {
+			literals[i] = lits[i].getBytes(charset);
+			fixed += literals[i].length;
+		}
+		this.fixedLength = fixed;
+
+		String[] alphabet = expansion.getAlphabet();
+		this.values = new byte[alphabet.length][];
+		this.lengthBefore = new long[alphabet.length + 1];
+		int longest = 0;
+		for (int d = 0; d < alphabet.length; d++) {
+			values[d] = alphabet[d].getBytes(charset);
+			lengthBefore[d + 1] = lengthBefore[d] + values[d].length;
+			longest = Math.max(longest, values[d].length);
+		}
+		this.maxLength = Math.addExact(fixed, Math.multiplyExact(longest, expansion.getStars()));
+	}
+
+	public ExpansionWriter(PatternExpansion expansion) {
+		this(expansion, StandardCharsets.UTF_8);
+	}
+
+	/** The byte offset of the line of the expansion at the index, offsetOf(count()) is the size of the file */
+	public long offsetOf(long index) {
+		if (index < 0 || index > expansion.count())
+			throw new IndexOutOfBoundsException("Index " + index + " is outside 0 - " + expansion.count());
+
+		int v = values.length;
+		long offset = Math.multiplyExact(index, (long) fixedLength);
+		long block = 1; // how many consecutive indexes have the same value at star w
+		for (int w = expansion.getStars() - 1; w >= 0; w--) {
+			long cycle = block * v; // at most the count so it doesn't overflow
+			long r = index % cycle;
+			int d = (int) (r / block);
+			offset = Math.addExact(offset, Math.multiplyExact(index / cycle, Math.multiplyExact(block, lengthBefore[v])));
+			offset = Math.addExact(offset, Math.multiplyExact(block, lengthBefore[d]) + (r % block) * values[d].length);
+			if (w > 0)
+				block = cycle;
+		}
+		return offset;
+	}
+
+	/** Size of the whole file */
+	public long size() {
+		return offsetOf(expansion.count());
+	}
+
+	/** Writes the file through a FileChannel in 'shards' parallel parts */
+	public long write(Path file, int shards) throws IOException {
+		return write(file, shards, false);
+	}
+
+	/** Writes the file through memory mapped regions in 'shards' parallel parts */
+	public long writeMapped(Path file, int shards) throws IOException {
+		return write(file, shards, true);
+	}
+
+	private long write(Path file, int shards, boolean mapped) throws IOException {
+		if (shards <= 0)
+			throw new IllegalArgumentException("Need at least one shard");
+
+		long count = expansion.count();
+		long size = size();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			if (size > 0)
+				channel.write(ByteBuffer.wrap(new byte[1]), size - 1); // full size up front, the shards write inside
+
+			int parts = (int) Math.max(1, Math.min(shards, count));
+			IntStream.range(0, parts).parallel().forEach(s -> {
+				long from = count / parts * s + Math.min(s, count % parts);
+				long to = from + count / parts + (s < count % parts ? 1 : 0);
+				try {
+					new Shard(channel, from, to, mapped).write();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return size;
+	}
+
+	/** Writes the lines of an index range to their place in the file */
+	private class Shard {
+		private final FileChannel channel;
+		private final long from;
+		private final long to;
+		private final long end; // byte offset after the last line
+		private final boolean mapped;
+		private long position; // file offset of the start of the buffer
+		private ByteBuffer out;
+
+		// The odometer of PatternExpansion on bytes
+		private final int[] digits = new int[expansion.getStars()];
+		private final int[] starts = new int[expansion.getStars()];
+		private final byte[] line = new byte[maxLength];
+		private int length;
+
+		Shard(FileChannel channel, long from, long to, boolean mapped) throws IOException {
+			this.channel = channel;
+			this.from = from;
+			this.to = to;
+			this.position = offsetOf(from);
+			this.end = offsetOf(to);
+			this.mapped = mapped;
+			this.out = mapped ? map() : ByteBuffer.allocateDirect((int) Math.min(BUFFER_SIZE, Math.max(end - position, 1)));
+		}
+
+		void write() throws IOException {
+			if (from == to)
+				return;
+
+			long index = from;
+			for (int w = digits.length - 1; w >= 0; w--) {
+				digits[w] = (int) (index % values.length);
+				index /= values.length;
+			}
+			rebuild(0);
+			put();
+			for (long i = from + 1; i < to; i++) {
+				int w = digits.length - 1;
+				while (++digits[w] == values.length) {
+					digits[w] = 0;
+					w--;
+				}
+				rebuild(w);
+				put();
+			}
+			if (!mapped)
+				flush();
+		}
+
+		private void rebuild(int from) {
+			if (from == 0) {
+				System.arraycopy(literals[0], 0, line, 0, literals[0].length);
+				length = literals[0].length;
+			} else {
+				length = starts[from];
+			}
+			for (int w = from; w < digits.length; w++) {
+				starts[w] = length;
+				byte[] value = values[digits[w]];
+				System.arraycopy(value, 0, line, length, value.length);
+				length += value.length;
+				byte[] literal = literals[w + 1];
+				System.arraycopy(literal, 0, line, length, literal.length);
+				length += literal.length;
+			}
+			line[length] = NEWLINE; // not part of 'length', the next line is rebuilt over it
+		}
+
+		private void put() throws IOException {
+			int len = length + 1;
+			if (out.remaining() >= len) {
+				out.put(line, 0, len);
+				return;
+			}
+			// The line spans the end of the buffer
+			for (int off = 0; off < len;) {
+				if (!out.hasRemaining())
+					flush();
+				int n = Math.min(len - off, out.remaining());
+				out.put(line, off, n);
+				off += n;
+			}
+		}
+
+		/** Writes out the buffer or moves on to the next mapped region */
+		private void flush() throws IOException {
+			if (mapped) {
+				position += out.position();
+				out = map();
+			} else {
+				out.flip();
+				while (out.hasRemaining())
+					position += channel.write(out, position);
+				out.clear();
+			}
+		}
+
+		private ByteBuffer map() throws IOException {
+			return channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(MAP_SIZE, end - position));
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		PatternExpansion small = new PatternExpansion("id-*-*", "x", "yy", "");
+		Path file = Files.createTempFile("expansions", ".txt");
+		try {
+			new ExpansionWriter(small).write(file, 3);
+			System.out.print(Files.readString(file));
+
+			final PatternExpansion ids = new PatternExpansion("ID-***-****", "0", "1", "2", "3", "4", "5", "6", "7",
+					"8", "9");
+			final ExpansionWriter writer = new ExpansionWriter(ids);
+			final int shards = Runtime.getRuntime().availableProcessors();
+			final long mb = writer.size() >> 20;
+			System.out.println(ids.count() + " ids, " + mb + " MB");
+
+			measure("Writer", () -> {
+				try (BufferedWriter w = Files.newBufferedWriter(file)) {
+					ids.forEach(s -> {
+						try {
+							w.write(s.toString());
+							w.write('\n');
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return file.toFile().length();
+			});
+			byte[] expected = Files.readAllBytes(file);
+
+			measure("FileChannel with " + shards + " shards", () -> {
+				try {
+					return writer.write(file, shards);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			System.out.println("Same as Writer: " + Arrays.equals(expected, Files.readAllBytes(file)));
+
+			measure("mapped with " + shards + " shards", () -> {
+				try {
+					return writer.writeMapped(file, shards);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			System.out.println("Same as Writer: " + Arrays.equals(expected, Files.readAllBytes(file)));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+package com.example.permute;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
+import java.util.stream.LongStream;
+
+import com.example.util.Measured;
+
+/** A pseudo random permutation of the indexes [0, N) for any N without storing it.
+ *
+ * Shuffling 2^40 ids with PermuteNumbers.shuffle would need the whole array in memory. Instead this is a keyed
+ * bijection computed on the fly: index i goes to position permute(i) and inverse() maps it back, both in O(1) time and
+ * memory.
+ *
+ * The bijection is a balanced Feistel network on the smallest even number of bits covering N: the bits are split into
+ * halves L and R and every round does (L, R) -> (R, L xor F(R)) where F is a mixing function keyed by the seed. This is a
+ * bijection of [0, 2^bits) whatever F is. To get a bijection of [0, N) it 'cycle walks': results outside the range are
+ * fed through again until one lands in it. The domain is less than 4N so that's less than 4 rounds on average.
+ *
+ * It's statistically random for shuffling and sampling, it's not meant to be cryptographically secure.
+ *
+ * @author jozseforosz
+ *
+ */
+public class IndexPermutation extends Measured {
+
+	private static final int ROUNDS = 6;
+
+	private final long n;
+	private final int halfBits;
+	private final long halfMask;
+	private final long[] keys = new long[ROUNDS];
+
+	public IndexPermutation(long n, long seed) {
+		if (n <= 0)
+			throw new IllegalArgumentException("Range must not be empty");
+
+		int bits = Math.max(2, 64 - Long.numberOfLeadingZeros(n - 1));
+		if ((bits & 1) == 1)
+			bits++;
+
+		this.n = n;
+		this.halfBits = bits / 2;
+		this.halfMask = halfBits == 32 ? 0xFFFFFFFFL : (1L << halfBits) - 1;
+
+		SplittableRandom rnd = new SplittableRandom(seed);
+		for (int i = 0; i < ROUNDS; i++)
+			keys[i] = rnd.nextLong();
+	}
+
+	public long size() {
+		return n;
+	}
+
+	/** The position of index i in the permutation */
+	public long permute(long i) {
+		checkIndex(i);
+		long x = i;
+		do {
+			x = encrypt(x);
+		} while (Long.compareUnsigned(x, n) >= 0);
+		return x;
+	}
+
+	/** The index which permute() maps to position p */
+	public long inverse(long p) {
+		checkIndex(p);
+		long x = p;
+		do {
+			x = decrypt(x);
+		} while (Long.compareUnsigned(x, n) >= 0);
+		return x;
+	}
+
+	/** Fills out with permute(from), permute(from+1)... */
+	public void permute(long from, long[] out) {
+		for (int i = 0; i < out.length; i++)
+			out[i] = permute(from + i);
+	}
+
+	/** permute(0), permute(1), ... permute(N-1) one by one */
+	public PrimitiveIterator.OfLong iterator() {
+		return new PrimitiveIterator.OfLong() {
+			long i = 0;
+
+			@Override
+			public boolean hasNext() {
+				return i < n;
+			}
+
+			@Override
+			public long nextLong() {
+				if (i >= n)
+					throw new NoSuchElementException();
+				return permute(i++);
+			}
+		};
+	}
+
+	/** The permuted indexes of [from, to) as a stream, every element is independent so it splits for parallel streams */
+	public LongStream stream(long from, long to) {
+		if (from < 0 || to < from || to > n)
+			throw new IndexOutOfBoundsException("Range " + from + " - " + to + " is outside 0 - " + n);
+		return LongStream.range(from, to).map(this::permute);
+	}
+
+	public LongStream stream() {
+		return stream(0, n);
+	}
+
+	private void checkIndex(long i) {
+		if (i < 0 || i >= n)
+			throw new IndexOutOfBoundsException("Index " + i + " is outside 0 - " + n);
+	}
+
+	private long encrypt(long x) {
+		long l = (x >>> halfBits) & halfMask;
+		long r = x & halfMask;
+		for (int round = 0; round < ROUNDS; round++) {
+			long t = r;
+			r = l ^ f(round, r);
+			l = t;
+		}
+		return (l << halfBits) | r;
+	}
+
+	private long decrypt(long x) {
+		long l = (x >>> halfBits) & halfMask;
+		long r = x & halfMask;
+		for (int round = ROUNDS - 1; round >= 0; round--) {
+			long t = l;
+			l = r ^ f(round, l);
+			r = t;
+		}
+		return (l << halfBits) | r;
+	}
+
+	/** The round function, the finalizer of SplitMix64 on the half keyed with the round's key */
+	private long f(int round, long half) {
+		long z = half ^ keys[round];
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return (z ^ (z >>> 31)) & halfMask;
+	}
+
+	public static void main(String[] args) {
+		IndexPermutation small = new IndexPermutation(10, 42);
+		System.out.println("Permutation of 10: " + Arrays.toString(small.stream().toArray()));
+
+		// Is it a bijection?
+		final int m = 1000003;
+		IndexPermutation p = new IndexPermutation(m, 7);
+		boolean[] hit = new boolean[m];
+		boolean inverts = true;
+		for (int i = 0; i < m; i++) {
+			long pos = p.permute(i);
+			hit[(int) pos] = true;
+			inverts &= p.inverse(pos) == i;
+		}
+		int missed = 0;
+		for (boolean h : hit)
+			if (!h)
+				missed++;
+		System.out.println("Permutation of " + m + " missed " + missed + " positions, inverse " + (inverts ? "OK" : "WRONG"));
+
+		// 2^40 record ids without materializing anything
+		IndexPermutation huge = new IndexPermutation(1L << 40, 2024);
+		long[] sample = new long[8];
+		huge.permute(1000000, sample);
+		System.out.println("Sample of 2^40: " + Arrays.toString(sample));
+
+		final long count = 50000000;
+		measure("serial " + count, () -> huge.stream(0, count).sum());
+		measure("parallel " + count, () -> huge.stream(0, count).parallel().sum());
+	}
+
+}
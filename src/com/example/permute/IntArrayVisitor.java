@@ -0,0 +1,24 @@
+package com.example.permute;
+
+/** Callback of PermuteNumbers.forEachPermutation and Combinations.forEach which is handed the same array for every permutation.
+ * The return value tells the enumeration how to go on.
+ *
+ * @author jozseforosz
+ *
+ */
+@FunctionalInterface
+public interface IntArrayVisitor {
+
+	/** Go on with the next permutation */
+	int CONTINUE = 0;
+
+	/** Stop the enumeration */
+	int STOP = -1;
+
+	/**
+	 * @param permutation the current permutation, must not be modified or kept after the call
+	 * @return CONTINUE, STOP or k > 0 to skip all following permutations starting with the same k elements
+	 */
+	int visit(int[] permutation);
+
+}
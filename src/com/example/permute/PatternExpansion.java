@@ -0,0 +1,214 @@
+package com.example.permute;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.example.util.Measured;
+
+/** All expansions of a pattern like 'aa*bb**' where every * is replaced by every value of an alphabet, generated
+ * lazily instead of in an array like PermuteString.permute.
+ *
+ * The expansions are numbered 0..v^n-1 (v values, n stars) in the order of PermuteString.permute: the index is a
+ * number in base v with one digit per star, the first star being the most significant. Walking them is an odometer:
+ * the last digit goes up and carries to the left. Every step rewrites the expansion in a single StringBuilder only
+ * from the leftmost star that changed, which is the last star most of the time, so memory is constant and a step is
+ * amortized O(1).
+ *
+ * The stream splits the index range like PermutationSpliterator so it can be consumed in parallel. The same
+ * StringBuilder is handed out for every expansion of a spliterator (so of a thread), it has to be copied if it's kept.
+ *
+ * @author jozseforosz
+ *
+ */
+public class PatternExpansion extends Measured {
+
+	public static final char PLACEHOLDER = '*';
+
+	/** Ranges smaller than this are not split any further */
+	private static final long MIN_SPLIT = 1024;
+
+	private final String[] literals; // the text around the stars, one more than the stars
+	private final String[] alphabet;
+	private final long count;
+
+	/** Expansions with the values of PermuteString, 1 and 2 */
+	public PatternExpansion(String pattern) {
+		this(pattern, "1", "2");
+	}
+
+	public PatternExpansion(String pattern, String... alphabet) {
+		if (alphabet.length == 0)
+			throw new IllegalArgumentException("Alphabet must not be empty");
+
+		this.literals = pattern.split("\\" + PLACEHOLDER, -1);
+		this.alphabet = alphabet.clone();
+
+		long c = 1;
+		for (int i = 0; i < getStars(); i++)
+			c = Math.multiplyExact(c, alphabet.length);
+		this.count = c;
+	}
+
+	/** Number of expansions, v^n */
+	public long count() {
+		return count;
+	}
+
+	public int getStars() {
+		return literals.length - 1;
+	}
+
+	String[] getLiterals() {
+		return literals;
+	}
+
+	String[] getAlphabet() {
+		return alphabet;
+	}
+
+	/** The expansion at the index */
+	public String expansionAt(long index) {
+		Odometer o = new Odometer();
+		o.set(index);
+		return o.text.toString();
+	}
+
+	/** Calls the action with the expansions from..to-1 in order, always with the same StringBuilder */
+	public void forEach(long from, long to, Consumer<? super CharSequence> action) {
+		if (from < 0 || to > count || from > to)
+			throw new IndexOutOfBoundsException("Range " + from + " - " + to + " is outside 0 - " + count);
+		if (from == to)
+			return;
+
+		Odometer o = new Odometer();
+		o.set(from);
+		action.accept(o.text);
+		for (long i = from + 1; i < to; i++) {
+			o.advance();
+			action.accept(o.text);
+		}
+	}
+
+	public void forEach(Consumer<? super CharSequence> action) {
+		forEach(0, count, action);
+	}
+
+	/** All expansions as a stream which can be split for parallel consumption */
+	public Stream<CharSequence> stream(boolean parallel) {
+		return StreamSupport.stream(new Expansions(0, count), parallel);
+	}
+
+	/** The current expansion and the digits that made it */
+	class Odometer {
+		final int[] digits = new int[getStars()];
+		final int[] starts = new int[getStars()]; // where the value of every star starts in the text
+		final StringBuilder text = new StringBuilder();
+
+		void set(long index) {
+			for (int w = digits.length - 1; w >= 0; w--) {
+				digits[w] = (int) (index % alphabet.length);
+				index /= alphabet.length;
+			}
+			rebuild(0);
+		}
+
+		/** Moves to the next expansion, returns the leftmost star that changed, -1 if it wrapped around to the first */
+		int advance() {
+			int w = digits.length - 1;
+			while (w >= 0 && ++digits[w] == alphabet.length) {
+				digits[w] = 0;
+				w--;
+			}
+			rebuild(Math.max(w, 0));
+			return w;
+		}
+
+		/** Rewrites the text from the value of star 'from' */
+		private void rebuild(int from) {
+			if (from == 0) {
+				text.setLength(0);
+				text.append(literals[0]);
+			} else {
+				text.setLength(starts[from]);
+			}
+			for (int w = from; w < digits.length; w++) {
+				starts[w] = text.length();
+				text.append(alphabet[digits[w]]).append(literals[w + 1]);
+			}
+		}
+	}
+
+	private class Expansions implements Spliterator<CharSequence> {
+		private long index;
+		private final long end;
+		private Odometer odometer;
+
+		Expansions(long index, long end) {
+			this.index = index;
+			this.end = end;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super CharSequence> action) {
+			if (index >= end)
+				return false;
+
+			if (odometer == null) {
+				odometer = new Odometer();
+				odometer.set(index);
+			} else {
+				odometer.advance();
+			}
+			index++;
+			action.accept(odometer.text);
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super CharSequence> action) {
+			while (tryAdvance(action))
+				;
+		}
+
+		@Override
+		public Spliterator<CharSequence> trySplit() {
+			if (odometer != null || end - index < 2 * MIN_SPLIT)
+				return null; // already started or too small to be worth it
+
+			long mid = index + (end - index) / 2;
+			Spliterator<CharSequence> prefix = new Expansions(index, mid);
+			index = mid;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - index;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED | NONNULL;
+		}
+	}
+
+	public static void main(String[] args) {
+		new PatternExpansion("aa*bb**").forEach(s -> System.out.println(s));
+		new PatternExpansion("id-*-*", "x", "yy", "").forEach(s -> System.out.println(s));
+
+		// A billion candidates in constant memory
+		final PatternExpansion digits = new PatternExpansion("PIN**-****-***", "0", "1", "2", "3", "4", "5", "6", "7",
+				"8", "9");
+		System.out.println(digits.count() + " expansions, the millionth is " + digits.expansionAt(1000000));
+
+		final PatternExpansion binary = new PatternExpansion("aa*bb*cc*dd*ee*ff*gg*hh*ii*jj*kk*ll*mm*nn*oo*pp*qq*rr*ss*tt*uu*vv*ww*xx*yy*",
+				"1", "2");
+		measure("serial count of " + binary.count() + " ending with 1", () -> binary.stream(false)
+				.filter(s -> s.charAt(s.length() - 1) == '1').count());
+		measure("parallel count of " + binary.count() + " ending with 1", () -> binary.stream(true)
+				.filter(s -> s.charAt(s.length() - 1) == '1').count());
+	}
+
+}
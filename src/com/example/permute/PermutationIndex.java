@@ -0,0 +1,304 @@
+package com.example.permute;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.example.util.Measured;
+
+/** Ranking and unranking permutations in lexicographic order for any number of elements.
+ *
+ * The index of a permutation is written in the factorial number system: index = d[0] * (n-1)! + d[1] * (n-2)! + ...
+ * where d[i] (the Lehmer code) is how many of the elements not used yet are smaller than the i'th element. Unranking
+ * picks the d[i]'th unused element, ranking counts the unused elements smaller than the current one. Both are a
+ * Fenwick tree (binary indexed tree) over the unused positions so they are O(n log n) instead of the quadratic
+ * 'remove from a list'.
+ *
+ * The index has O(n log n) bits so going between it and the digits one digit at a time (Horner's rule) would be
+ * quadratic again. Instead the digits are split in halves: the index of the left half times the product of the
+ * radices of the right half plus the index of the right half, and the other way around with a division. With
+ * BigInteger's subquadratic multiplication and division this is a few multiplications of the index's size.
+ *
+ * Unlike PermuteNumbers.permutationAt these permute the elements of the input (in the order given) and have a
+ * BigInteger index so they work beyond 20 elements.
+ *
+ * @author jozseforosz
+ *
+ */
+public class PermutationIndex extends Measured {
+
+	/** Fenwick tree of 0/1 flags marking the unused positions 0..n-1 */
+	private static class Fenwick {
+		private final int[] tree;
+		private final int n;
+
+		/** All positions are unused */
+		Fenwick(int n) {
+			this.n = n;
+			this.tree = new int[n + 1];
+			for (int i = 1; i <= n; i++) {
+				tree[i]++;
+				int parent = i + (i & -i);
+				if (parent <= n)
+					tree[parent] += tree[i];
+			}
+		}
+
+		/** Number of unused positions before pos */
+		int countBefore(int pos) {
+			int sum = 0;
+			for (int i = pos; i > 0; i -= i & -i)
+				sum += tree[i];
+			return sum;
+		}
+
+		void remove(int pos) {
+			for (int i = pos + 1; i <= n; i += i & -i)
+				tree[i]--;
+		}
+
+		/** The position of the k'th (from 0) unused position by walking down the tree */
+		int select(int k) {
+			int pos = 0;
+			for (int step = Integer.highestOneBit(n); step > 0; step >>= 1) {
+				int next = pos + step;
+				if (next <= n && tree[next] <= k) {
+					pos = next;
+					k -= tree[next];
+				}
+			}
+			return pos;
+		}
+	}
+
+	/** The permutation of the elements of 'what' at the given index, 0 <= index < n!. If 'what' is sorted the
+	 * permutations are in lexicographic order. Returns a new array. */
+	public static int[] unrank(BigInteger index, int[] what) {
+		int[] order = positions(digits(index, what.length));
+		int[] result = new int[what.length];
+		for (int i = 0; i < order.length; i++)
+			result[i] = what[order[i]];
+		return result;
+	}
+
+	/** Same as unrank(BigInteger, int[]) for up to 20 elements */
+	public static int[] unrank(long index, int[] what) {
+		int[] order = positions(digits(index, what.length));
+		int[] result = new int[what.length];
+		for (int i = 0; i < order.length; i++)
+			result[i] = what[order[i]];
+		return result;
+	}
+
+	/** Same as unrank(BigInteger, int[]) for objects */
+	public static <T> T[] unrank(BigInteger index, T[] what) {
+		int[] order = positions(digits(index, what.length));
+		T[] result = what.clone();
+		for (int i = 0; i < order.length; i++)
+			result[i] = what[order[i]];
+		return result;
+	}
+
+	/** The lexicographic index of a permutation of distinct numbers, the inverse of unrank with the numbers sorted */
+	public static BigInteger rank(int[] perm) {
+		return value(lehmer(perm), 0, perm.length)[0];
+	}
+
+	/** Same as rank(int[]) for up to 20 elements */
+	public static long rankLong(int[] perm) {
+		if (perm.length > 20)
+			throw new ArithmeticException("Index of " + perm.length + " elements doesn't fit in a long");
+
+		int[] d = lehmer(perm);
+		long index = 0;
+		for (int i = 0; i < d.length; i++)
+			index = index * (d.length - i) + d[i]; // Horner's rule on the factorial base
+		return index;
+	}
+
+	/** Rearranges the array into the lexicographically next permutation in place. Returns false (and leaves the
+	 * array sorted ascending) if it was the last one. Amortized O(1) per call. */
+	public static boolean nextPermutation(int[] a) {
+		return next(a) >= 0;
+	}
+
+	/** nextPermutation which returns the first index that changed, -1 if it wrapped around to the first one */
+	static int next(int[] a) {
+		// Find the longest non increasing suffix, the element before it is the one to bump
+		int i = a.length - 2;
+		while (i >= 0 && a[i] >= a[i + 1])
+			i--;
+
+		if (i >= 0) {
+			// Swap with the smallest larger element of the suffix
+			int j = a.length - 1;
+			while (a[j] <= a[i])
+				j--;
+			swap(a, i, j);
+		}
+
+		// The suffix is non increasing, reverse it to make it the smallest
+		for (int l = i + 1, r = a.length - 1; l < r; l++, r--)
+			swap(a, l, r);
+		return i;
+	}
+
+	private static void swap(int[] a, int i, int j) {
+		int temp = a[i];
+		a[i] = a[j];
+		a[j] = temp;
+	}
+
+	/** Lehmer code of a permutation of distinct numbers: d[i] is the number of perm[j] < perm[i] with j > i */
+	static int[] lehmer(int[] perm) {
+		int n = perm.length;
+		int[] sorted = perm.clone();
+		Arrays.sort(sorted);
+		for (int i = 1; i < n; i++)
+			if (sorted[i] == sorted[i - 1])
+				throw new IllegalArgumentException("Elements must be distinct, found " + sorted[i] + " twice");
+
+		Fenwick unused = new Fenwick(n);
+		int[] d = new int[n];
+		for (int i = 0; i < n; i++) {
+			int pos = Arrays.binarySearch(sorted, perm[i]);
+			d[i] = unused.countBefore(pos);
+			unused.remove(pos);
+		}
+		return d;
+	}
+
+	/** Positions of the input in the order given by the Lehmer code */
+	static int[] positions(int[] d) {
+		int n = d.length;
+		Fenwick unused = new Fenwick(n);
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = unused.select(d[i]);
+			unused.remove(order[i]);
+		}
+		return order;
+	}
+
+	/** Below this many digits the conversions go one digit at a time */
+	private static final int SMALL_DIGITS = 16;
+
+	/** (n-lo) * (n-lo-1) * ... * (n-hi+1), the product of the radices of the digits lo..hi-1 */
+	private static BigInteger radices(int n, int lo, int hi) {
+		if (hi - lo <= SMALL_DIGITS) {
+			BigInteger p = BigInteger.ONE;
+			for (int i = lo; i < hi; i++)
+				p = p.multiply(BigInteger.valueOf(n - i));
+			return p;
+		}
+		int mid = (lo + hi) >>> 1;
+		return radices(n, lo, mid).multiply(radices(n, mid, hi));
+	}
+
+	/** The digits lo..hi-1 as a number and the product of their radices */
+	private static BigInteger[] value(int[] d, int lo, int hi) {
+		int n = d.length;
+		if (hi - lo <= SMALL_DIGITS) {
+			BigInteger v = BigInteger.ZERO;
+			BigInteger p = BigInteger.ONE;
+			for (int i = lo; i < hi; i++) {
+				v = v.multiply(BigInteger.valueOf(n - i)).add(BigInteger.valueOf(d[i]));
+				p = p.multiply(BigInteger.valueOf(n - i));
+			}
+			return new BigInteger[] { v, p };
+		}
+		int mid = (lo + hi) >>> 1;
+		BigInteger[] left = value(d, lo, mid);
+		BigInteger[] right = value(d, mid, hi);
+		return new BigInteger[] { left[0].multiply(right[1]).add(right[0]), left[1].multiply(right[1]) };
+	}
+
+	/** Digits of the index in the factorial number system */
+	static int[] digits(BigInteger index, int n) {
+		if (index.signum() < 0)
+			throw new IllegalArgumentException("Negative index " + index);
+		if (index.compareTo(radices(n, 0, n)) >= 0)
+			throw new IllegalArgumentException("Index is larger than " + n + "!");
+
+		int[] d = new int[n];
+		digits(index, d, 0, n);
+		return d;
+	}
+
+	/** Fills d[lo..hi) from v, which is less than the product of their radices */
+	private static void digits(BigInteger v, int[] d, int lo, int hi) {
+		int n = d.length;
+		if (hi - lo <= SMALL_DIGITS) {
+			for (int i = hi - 1; i >= lo; i--) {
+				BigInteger[] qr = v.divideAndRemainder(BigInteger.valueOf(n - i));
+				d[i] = qr[1].intValue();
+				v = qr[0];
+			}
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		BigInteger[] qr = v.divideAndRemainder(radices(n, mid, hi));
+		digits(qr[0], d, lo, mid);
+		digits(qr[1], d, mid, hi);
+	}
+
+	static int[] digits(long index, int n) {
+		if (index < 0)
+			throw new IllegalArgumentException("Negative index " + index);
+
+		int[] d = new int[n];
+		for (int k = 1; k <= n; k++) {
+			d[n - k] = (int) (index % k);
+			index /= k;
+		}
+		if (index != 0)
+			throw new IllegalArgumentException("Index is larger than " + n + "!");
+		return d;
+	}
+
+	public static void main(String[] args) {
+		int[] base = { 10, 20, 30, 40 };
+		for (long i = 0; i < 24; i++) {
+			int[] perm = unrank(i, base);
+			System.out.println(i + " " + Arrays.toString(perm) + " rank " + rankLong(perm));
+		}
+
+		String[] words = { "alma", "korte", "szilva" };
+		for (int i = 0; i < 6; i++)
+			System.out.println(Arrays.toString(unrank(BigInteger.valueOf(i), words)));
+
+		// Hundreds of elements
+		final int n = 500;
+		int[] big = new int[n];
+		for (int i = 0; i < n; i++)
+			big[i] = i;
+		BigInteger factorial = BigInteger.ONE;
+		for (int i = 2; i <= n; i++)
+			factorial = factorial.multiply(BigInteger.valueOf(i));
+		final BigInteger index = factorial.divide(BigInteger.valueOf(3));
+		final BigInteger last = factorial.subtract(BigInteger.ONE);
+
+		int[] perm = measure("unrank of " + n + "!/3", () -> unrank(index, big));
+		measure("rank back matches", () -> rank(perm).equals(index));
+		measure("last permutation", () -> unrank(last, big)[0]);
+
+		// Enough elements for the conversion of the index to matter
+		final int huge = 100000;
+		int[] many = new int[huge];
+		for (int i = 0; i < huge; i++)
+			many[i] = i;
+		Random r = new Random(1);
+		for (int i = huge - 1; i > 0; i--) {
+			int j = r.nextInt(i + 1);
+			int temp = many[i];
+			many[i] = many[j];
+			many[j] = temp;
+		}
+		BigInteger[] manyIndex = new BigInteger[1];
+		measure("rank of " + huge + " elements", () -> (manyIndex[0] = rank(many)).bitLength() + " bits");
+		int[] sorted = many.clone();
+		Arrays.sort(sorted);
+		measure("unrank back matches", () -> Arrays.equals(unrank(manyIndex[0], sorted), many));
+	}
+
+}
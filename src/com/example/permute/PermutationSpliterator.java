@@ -0,0 +1,151 @@
+package com.example.permute;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.example.util.Measured;
+
+/** Enumerates all permutations of an array, in lexicographic order of the positions, as a splittable stream.
+ *
+ * The n! permutations are the index range [0, n!) so splitting is just halving the range. A spliterator only unranks
+ * once, at the start of its range, then moves to the next permutation in place which is amortized O(1) and
+ * allocates nothing. Every spliterator (so every thread in a parallel stream) has its own buffer, the same array is
+ * handed to the consumer over and over: it must be copied if it's kept after the call.
+ *
+ * The index is a long so this works up to 20 elements, which is way more than can be enumerated anyway.
+ *
+ * @author jozseforosz
+ *
+ */
+public class PermutationSpliterator extends Measured implements Spliterator<int[]> {
+
+	/** Ranges smaller than this are not split any further */
+	private static final long MIN_SPLIT = 1024;
+
+	private final int[] what;
+	private long index;
+	private final long end;
+
+	private int[] positions; // the current permutation of the positions 0..n-1
+	private int[] buffer; // the elements in the order of positions
+
+	PermutationSpliterator(int[] what, long start, long end) {
+		this.what = what;
+		this.index = start;
+		this.end = end;
+	}
+
+	/** All permutations of the elements of 'what' (as given, duplicates are treated as different) */
+	public static Stream<int[]> permutations(int[] what, boolean parallel) {
+		if (what.length > 20)
+			throw new IllegalArgumentException("Cannot enumerate " + what.length + "! permutations");
+		return StreamSupport.stream(new PermutationSpliterator(what.clone(), 0, PermuteNumbers.factorial(what.length)),
+				parallel);
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super int[]> action) {
+		if (index >= end)
+			return false;
+
+		if (positions == null)
+			start();
+		else
+			advance();
+		index++;
+		action.accept(buffer);
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super int[]> action) {
+		if (index >= end)
+			return;
+
+		if (positions == null)
+			start();
+		else
+			advance();
+		action.accept(buffer);
+		for (long i = index + 1; i < end; i++) {
+			advance();
+			action.accept(buffer);
+		}
+		index = end;
+	}
+
+	/** Unranks the first permutation of the range */
+	private void start() {
+		positions = PermutationIndex.positions(PermutationIndex.digits(index, what.length));
+		buffer = new int[what.length];
+		for (int i = 0; i < what.length; i++)
+			buffer[i] = what[positions[i]];
+	}
+
+	/** Moves to the next permutation and updates the changed suffix of the buffer */
+	private void advance() {
+		int[] p = positions;
+		for (int j = Math.max(PermutationIndex.next(p), 0); j < p.length; j++)
+			buffer[j] = what[p[j]];
+	}
+
+	@Override
+	public Spliterator<int[]> trySplit() {
+		if (positions != null || end - index < 2 * MIN_SPLIT)
+			return null; // already started or too small to be worth it
+
+		long mid = index + (end - index) / 2;
+		Spliterator<int[]> prefix = new PermutationSpliterator(what, index, mid);
+		index = mid;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return end - index;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | SIZED | SUBSIZED | NONNULL;
+	}
+
+	/** True if the permutation is a derangement (no element in its original place) */
+	private static boolean isDerangement(int[] perm) {
+		for (int i = 0; i < perm.length; i++)
+			if (perm[i] == i)
+				return false;
+		return true;
+	}
+
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 11;
+		int[] base = new int[n];
+		for (int i = 0; i < n; i++)
+			base[i] = i;
+
+		permutations(new int[] { 1, 2, 3 }, false).forEach(p -> System.out.println(Arrays.toString(p)));
+
+		measure("serial derangements of " + n, () -> permutations(base, false).filter(PermutationSpliterator::isDerangement).count());
+		measure("parallel derangements of " + n, () -> permutations(base, true).filter(PermutationSpliterator::isDerangement).count());
+
+		// The old way: unrank every index into a new array
+		final long fact = PermuteNumbers.factorial(n);
+		measure("permutationAt derangements of " + n, () -> {
+			long count = 0;
+			for (long i = 0; i < fact; i++) {
+				int[] p = PermuteNumbers.permutationAt(i, base);
+				boolean d = true;
+				for (int j = 0; j < p.length && d; j++)
+					d = p[j] != j + 1; // permutationAt works on 1..n
+				if (d)
+					count++;
+			}
+			return count;
+		});
+	}
+
+}
@@ -3,6 +3,8 @@ package com.example.permute;
 import java.util.Arrays;
 import java.util.Random;
 
+import com.example.util.Measured;
+
 public class PermuteNumbers {
 
 	private static Random r = new Random();
@@ -60,36 +62,56 @@ public class PermuteNumbers {
 		return nums;
 	}
 	
-	/** A smart way to generate lottery numbers based on a SINGLE random number using the permutation
-	 * algorithm above. Basically we use the fact that the generator above permutes the first n elements
-	 * of the list in all possible combinations first so for n numbers it will put all combinations
-	 * for a range between 0..n! / num! and the output will be the first num elements of the array
+	/** Lottery numbers based on a SINGLE random number: the random number is the index of a combination of
+	 * 'num' elements of 1..max (see Combinations). It used to unrank a whole permutation of 'max' numbers and keep
+	 * the first 'num', which was wasteful and the range max!/(max-num)! overflowed a long for bigger draws.
 	 */
 	public static int[] makeLotteryNumbers(int max, int num) {
-		int[] numbers = new int[max];
-		
-		// init array of lottery numbers
-		for (int i=0; i< max; i++) numbers[i] = i+1;
+		Combinations combinations = new Combinations(max, num);
 
-		// make a random big enough to cover permutations for the 'num' elements
-		// that is max!/(max-num!) which we calculate with *=
-		long limit = 1;
-		for (int i = 1; i <= num; i++) limit *= (max-i+1);
-		
-		long rand = (long)(r.nextDouble()*limit);
-		System.out.println("Random "+rand+" from range "+limit);
-		
-		// Shuffle based on this random index
-		int[] shuffle = permutationAt(rand, numbers);
-		
-		// Return the subarray of the shuffle 0..num-1
-		// The first elements will all be combined!
-		
-		int[] result = new int[num];
-		System.arraycopy(shuffle, 0, result, 0, num);
+		long rand = r.nextLong(combinations.count());
+		System.out.println("Random "+rand+" from range "+combinations.count());
+
+		// The combination is of 0..max-1, lottery numbers start at 1
+		int[] result = combinations.unrank(rand);
+		for (int i = 0; i < num; i++) result[i]++;
 		return result;
 	}
 
+	/**
+	 * Visits every permutation of the array in lexicographic order, in place. The array is sorted first and the
+	 * visitor gets the same array each time, so there is no allocation at all. Duplicate elements are fine, each
+	 * distinct permutation is visited once. At the end the array is sorted again (unless the visitor stopped).
+	 * 
+	 * The visitor can STOP or return k to skip the rest of the permutations with the current first k elements
+	 * (pruning in a search). The loop is a single call site to keep it simple for the JIT, it stays fast as long
+	 * as one or two kinds of visitors go through it.
+	 * 
+	 * @return the number of permutations visited
+	 */
+	public static long forEachPermutation(int[] a, IntArrayVisitor v) {
+		Arrays.sort(a);
+
+		long visited = 0;
+		while (true) {
+			visited++;
+			int skip = v.visit(a);
+			if (skip < 0)
+				return visited;
+			if (skip > 0 && skip < a.length - 1) {
+				// Make the suffix after the prefix its last (descending) arrangement so next() leaves the prefix
+				Arrays.sort(a, skip, a.length);
+				for (int l = skip, r = a.length - 1; l < r; l++, r--) {
+					int temp = a[l];
+					a[l] = a[r];
+					a[r] = temp;
+				}
+			}
+			if (PermutationIndex.next(a) < 0)
+				return visited;
+		}
+	}
+
 	/** Helper method for factorial */
 	public static long factorial(int n) {
 		long fact = 1; 
@@ -114,6 +136,55 @@ public class PermuteNumbers {
 		
 		int[] lottery = makeLotteryNumbers(90, 5);
 		System.out.println(Arrays.toString(lottery));
+
+		forEachPermutation(new int[] { 3, 1, 2, 1 }, p -> {
+			System.out.println(Arrays.toString(p));
+			return IntArrayVisitor.CONTINUE;
+		});
+
+		// Count the derangements of 11 numbers, with the visitor and by index
+		final int n = 11;
+		final int[] nums = new int[n];
+		for (int i = 0; i < n; i++)
+			nums[i] = i + 1;
+
+		Measured.measure("visitor without pruning derangements of " + n, () -> {
+			long[] count = new long[1];
+			forEachPermutation(nums, p -> {
+				for (int i = 0; i < p.length; i++)
+					if (p[i] == i + 1)
+						return IntArrayVisitor.CONTINUE;
+				count[0]++;
+				return IntArrayVisitor.CONTINUE;
+			});
+			return count[0];
+		});
+
+		Measured.measure("visitor derangements of " + n, () -> {
+			long[] count = new long[1];
+			forEachPermutation(nums, p -> {
+				for (int i = 0; i < p.length; i++)
+					if (p[i] == i + 1)
+						return i + 1; // no permutation with this prefix can be a derangement
+				count[0]++;
+				return IntArrayVisitor.CONTINUE;
+			});
+			return count[0];
+		});
+
+		Measured.measure("permutationAt derangements of " + n, () -> {
+			long count = 0;
+			long f = factorial(n);
+			for (long j = 0; j < f; j++) {
+				int[] p = permutationAt(j, nums);
+				boolean derangement = true;
+				for (int i = 0; i < p.length && derangement; i++)
+					derangement = p[i] != i + 1;
+				if (derangement)
+					count++;
+			}
+			return count;
+		});
 		
 	}
 
@@ -16,6 +16,12 @@ public class PermuteString {
 	/** Permutation - obviously has v^n runtime ( v=number of characters, n=number of stars) 
 	 * but linear recursion */	
 	public static String[] permute(String pattern) {
+		return permute(pattern, values);
+	}
+
+	/** Same as permute(String) with a custom set of values. All v^n strings are in the result, for lots of
+	 * stars see PatternExpansion which generates them one by one. */
+	public static String[] permute(String pattern, String... values) {
 		System.out.println("Permute " + pattern);
 		
 		assert pattern != null;
@@ -28,7 +34,7 @@ public class PermuteString {
 		}
 
 		String pre = pattern.substring(0, idx);
-		String[] others = permute(pattern.substring(idx + 1));
+		String[] others = permute(pattern.substring(idx + 1), values);
 
 		String[] result = new String[values.length * others.length];
 		int i = 0;
@@ -50,5 +56,10 @@ public class PermuteString {
 		System.out.println(Arrays.toString(alma1));
 		alma1 = permute("***");
 		System.out.println(Arrays.toString(alma1));
+		alma1 = permute("*-*", "a", "b", "c");
+		System.out.println(Arrays.toString(alma1));
+
+		// The same lazily, without the array
+		new PatternExpansion("*-*", "a", "b", "c").stream(false).forEach(System.out::println);
 	}
 }
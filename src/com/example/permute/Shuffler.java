@@ -0,0 +1,344 @@
+package com.example.permute;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.random.RandomGenerator;
+
+import com.example.util.Measured;
+
+/** Shuffling huge arrays on all cores without a shared Random.
+ *
+ * PermuteNumbers.shuffle is a Fisher-Yates shuffle with one static Random so it uses one core and threads
+ * shuffling at the same time contend on the seed of the Random. Here every shuffle gets its own generator, and the
+ * parallel version splits a SplittableRandom for every task so no generator is ever shared.
+ *
+ * The parallel version is MergeShuffle (Bacher, Bodini, Hollender, Lumbroso): the two halves are shuffled in
+ * parallel then merged in place by taking the next element from the left or the right on a random bit. When one side
+ * runs out the rest is inserted at uniformly random positions like in Fisher-Yates, which makes the result uniform.
+ *
+ * @author jozseforosz
+ *
+ */
+public class Shuffler extends Measured {
+
+	/** Below this many elements a part is shuffled with Fisher-Yates */
+	private static final int SEQUENTIAL_THRESHOLD = 1 << 16;
+
+	/** Fisher-Yates shuffle with the given generator */
+	public static void shuffle(int[] a, RandomGenerator rnd) {
+		shuffle(a, 0, a.length, rnd);
+	}
+
+	public static void shuffle(long[] a, RandomGenerator rnd) {
+		shuffle(a, 0, a.length, rnd);
+	}
+
+	public static <T> void shuffle(T[] a, RandomGenerator rnd) {
+		shuffle(a, 0, a.length, rnd);
+	}
+
+	/** Parallel MergeShuffle on the common pool */
+	public static void parallelShuffle(int[] a, SplittableRandom rnd) {
+		ForkJoinPool.commonPool().invoke(new IntShuffle(a, 0, a.length, rnd, SEQUENTIAL_THRESHOLD));
+	}
+
+	public static void parallelShuffle(long[] a, SplittableRandom rnd) {
+		ForkJoinPool.commonPool().invoke(new LongShuffle(a, 0, a.length, rnd, SEQUENTIAL_THRESHOLD));
+	}
+
+	public static <T> void parallelShuffle(T[] a, SplittableRandom rnd) {
+		ForkJoinPool.commonPool().invoke(new ObjectShuffle<T>(a, 0, a.length, rnd, SEQUENTIAL_THRESHOLD));
+	}
+
+	/** Same as parallelShuffle with a custom threshold, used to check uniformity on tiny arrays */
+	static void parallelShuffle(int[] a, SplittableRandom rnd, int threshold) {
+		ForkJoinPool.commonPool().invoke(new IntShuffle(a, 0, a.length, rnd, threshold));
+	}
+
+	// ---- int[]
+
+	private static void shuffle(int[] a, int from, int to, RandomGenerator rnd) {
+		for (int i = to - 1; i > from; i--) {
+			int idx = from + rnd.nextInt(i - from + 1);
+			int temp = a[i];
+			a[i] = a[idx];
+			a[idx] = temp;
+		}
+	}
+
+	/** Merges the shuffled [from, mid) and [mid, to) into a shuffled [from, to) */
+	private static void merge(int[] a, int from, int mid, int to, RandomGenerator rnd) {
+		int i = from;
+		int j = mid;
+		long bits = 0;
+		int left = 0;
+
+		while (true) {
+			if (left == 0) {
+				bits = rnd.nextLong();
+				left = 64;
+			}
+			boolean right = (bits & 1) == 1;
+			bits >>>= 1;
+			left--;
+
+			if (right) {
+				if (j == to)
+					break;
+				int temp = a[i];
+				a[i] = a[j];
+				a[j] = temp;
+				j++;
+			} else if (i == j) {
+				break;
+			}
+			i++;
+		}
+
+		// One side ran out, insert the rest at random positions
+		for (; i < to; i++) {
+			int m = from + rnd.nextInt(i - from + 1);
+			int temp = a[i];
+			a[i] = a[m];
+			a[m] = temp;
+		}
+	}
+
+	private static class IntShuffle extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int[] a;
+		private final int from;
+		private final int to;
+		private final SplittableRandom rnd;
+		private final int threshold;
+
+		IntShuffle(int[] a, int from, int to, SplittableRandom rnd, int threshold) {
+			this.a = a;
+			this.from = from;
+			this.to = to;
+			this.rnd = rnd;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= threshold) {
+				shuffle(a, from, to, rnd);
+				return;
+			}
+			int mid = from + (to - from) / 2;
+			invokeAll(new IntShuffle(a, from, mid, rnd.split(), threshold),
+					new IntShuffle(a, mid, to, rnd.split(), threshold));
+			merge(a, from, mid, to, rnd);
+		}
+	}
+
+	// ---- long[]
+
+	private static void shuffle(long[] a, int from, int to, RandomGenerator rnd) {
+		for (int i = to - 1; i > from; i--) {
+			int idx = from + rnd.nextInt(i - from + 1);
+			long temp = a[i];
+			a[i] = a[idx];
+			a[idx] = temp;
+		}
+	}
+
+	private static void merge(long[] a, int from, int mid, int to, RandomGenerator rnd) {
+		int i = from;
+		int j = mid;
+		long bits = 0;
+		int left = 0;
+
+		while (true) {
+			if (left == 0) {
+				bits = rnd.nextLong();
+				left = 64;
+			}
+			boolean right = (bits & 1) == 1;
+			bits >>>= 1;
+			left--;
+
+			if (right) {
+				if (j == to)
+					break;
+				long temp = a[i];
+				a[i] = a[j];
+				a[j] = temp;
+				j++;
+			} else if (i == j) {
+				break;
+			}
+			i++;
+		}
+
+		for (; i < to; i++) {
+			int m = from + rnd.nextInt(i - from + 1);
+			long temp = a[i];
+			a[i] = a[m];
+			a[m] = temp;
+		}
+	}
+
+	private static class LongShuffle extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final long[] a;
+		private final int from;
+		private final int to;
+		private final SplittableRandom rnd;
+		private final int threshold;
+
+		LongShuffle(long[] a, int from, int to, SplittableRandom rnd, int threshold) {
+			this.a = a;
+			this.from = from;
+			this.to = to;
+			this.rnd = rnd;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= threshold) {
+				shuffle(a, from, to, rnd);
+				return;
+			}
+			int mid = from + (to - from) / 2;
+			invokeAll(new LongShuffle(a, from, mid, rnd.split(), threshold),
+					new LongShuffle(a, mid, to, rnd.split(), threshold));
+			merge(a, from, mid, to, rnd);
+		}
+	}
+
+	// ---- Object[]
+
+	private static <T> void shuffle(T[] a, int from, int to, RandomGenerator rnd) {
+		for (int i = to - 1; i > from; i--) {
+			int idx = from + rnd.nextInt(i - from + 1);
+			T temp = a[i];
+			a[i] = a[idx];
+			a[idx] = temp;
+		}
+	}
+
+	private static <T> void merge(T[] a, int from, int mid, int to, RandomGenerator rnd) {
+		int i = from;
+		int j = mid;
+		long bits = 0;
+		int left = 0;
+
+		while (true) {
+			if (left == 0) {
+				bits = rnd.nextLong();
+				left = 64;
+			}
+			boolean right = (bits & 1) == 1;
+			bits >>>= 1;
+			left--;
+
+			if (right) {
+				if (j == to)
+					break;
+				T temp = a[i];
+				a[i] = a[j];
+				a[j] = temp;
+				j++;
+			} else if (i == j) {
+				break;
+			}
+			i++;
+		}
+
+		for (; i < to; i++) {
+			int m = from + rnd.nextInt(i - from + 1);
+			T temp = a[i];
+			a[i] = a[m];
+			a[m] = temp;
+		}
+	}
+
+	private static class ObjectShuffle<T> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final T[] a;
+		private final int from;
+		private final int to;
+		private final SplittableRandom rnd;
+		private final int threshold;
+
+		ObjectShuffle(T[] a, int from, int to, SplittableRandom rnd, int threshold) {
+			this.a = a;
+			this.from = from;
+			this.to = to;
+			this.rnd = rnd;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= threshold) {
+				shuffle(a, from, to, rnd);
+				return;
+			}
+			int mid = from + (to - from) / 2;
+			invokeAll(new ObjectShuffle<T>(a, from, mid, rnd.split(), threshold),
+					new ObjectShuffle<T>(a, mid, to, rnd.split(), threshold));
+			merge(a, from, mid, to, rnd);
+		}
+	}
+
+	/** Chi-square statistic of how often each of the n! permutations of n elements came out of the parallel
+	 * shuffle. With a threshold of 1 every element goes through merges. */
+	static double chiSquare(int n, int rounds, SplittableRandom rnd) {
+		int f = (int) PermuteNumbers.factorial(n);
+		long[] counts = new long[f];
+		int[] a = new int[n];
+		for (int r = 0; r < rounds; r++) {
+			for (int i = 0; i < n; i++)
+				a[i] = i;
+			parallelShuffle(a, rnd, 1);
+			counts[(int) PermutationIndex.rankLong(a)]++;
+		}
+
+		double expected = (double) rounds / f;
+		double chi = 0;
+		for (long c : counts)
+			chi += (c - expected) * (c - expected) / expected;
+		return chi;
+	}
+
+	public static void main(String[] args) {
+		SplittableRandom rnd = new SplittableRandom();
+
+		// 5 elements: 119 degrees of freedom, the statistic should be around 119 and below ~158 (p = 0.01)
+		double chi = chiSquare(5, 240000, rnd);
+		System.out.println("Chi-square of 5 element merge shuffles: " + chi + (chi < 158 ? " uniform" : " NOT UNIFORM"));
+		chi = chiSquare(6, 720000, rnd);
+		System.out.println("Chi-square of 6 element merge shuffles: " + chi + (chi < 810 ? " uniform" : " NOT UNIFORM"));
+
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 50000000;
+		int[] ints = new int[size];
+		for (int i = 0; i < size; i++)
+			ints[i] = i;
+
+		measure("PermuteNumbers.shuffle of " + size, PermuteNumbers::shuffle, ints);
+		measure("Fisher-Yates with SplittableRandom of " + size, (int[] a) -> shuffle(a, rnd), ints);
+		measure("parallel merge shuffle of " + size, (int[] a) -> parallelShuffle(a, rnd), ints);
+
+		long[] longs = new long[size];
+		measure("parallel merge shuffle of " + size + " longs", (long[] a) -> parallelShuffle(a, rnd), longs);
+
+		// Still a permutation?
+		boolean[] seen = new boolean[size];
+		for (int i : ints)
+			seen[i] = true;
+		int missing = 0;
+		for (boolean s : seen)
+			if (!s)
+				missing++;
+		System.out.println("Missing after shuffles: " + missing);
+	}
+
+}
@@ -19,21 +19,34 @@ public class BQueue<E> {
 	private Object[] elements;
 	private int offset;
 	private int size;
+	private boolean verbose = true;
 
 	public BQueue(int size) {
 		this.elements = new Object[size];
 	}
 
+	/** Switches the tracing of every operation to System.out on or off (on by default) */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/** Number of elements in the queue */
+	public int size() {
+		return size;
+	}
+
 	public void enqueue(E elem) {
 		if (size == elements.length) {
-			System.out.println("FULL! Extending");
+			if (verbose) System.out.println("FULL! Extending");
 			Object[] new_elements = new Object[elements.length * 2];
 
 			System.arraycopy(elements, offset, new_elements, 0, elements.length - offset);
 			System.arraycopy(elements, 0, new_elements, elements.length - offset, offset);
 
-			System.out.println(Arrays.toString(elements));
-			System.out.println(Arrays.toString(new_elements));
+			if (verbose) {
+				System.out.println(Arrays.toString(elements));
+				System.out.println(Arrays.toString(new_elements));
+			}
 
 			this.elements = new_elements;
 			this.offset = 0;
@@ -41,19 +54,20 @@ public class BQueue<E> {
 
 		int idx = (offset + size++) % elements.length;
 		elements[idx] = elem;
-		System.out.println("Insert " + elem + " @index " + idx + " offset " + offset + " size " + size);
+		if (verbose) System.out.println("Insert " + elem + " @index " + idx + " offset " + offset + " size " + size);
 	}
 
 	public E dequeue() {
 		if (size > 0) {
 			@SuppressWarnings("unchecked")
 			E e = (E) elements[offset];
+			elements[offset] = null; // don't hold on to the reference
 			
 			size--;
 			offset = (offset + 1) % elements.length;
 			return e;
 		} else {
-			System.out.println("EMPTY!");
+			if (verbose) System.out.println("EMPTY!");
 			return null;
 		}
 	}
@@ -64,25 +78,29 @@ public class BQueue<E> {
 	
 	public E pop() {
 		if (size > 0) {
+			int idx = (offset + --size) % elements.length;
 			@SuppressWarnings("unchecked")
-			E e = (E) elements[(offset + --size) % elements.length];
+			E e = (E) elements[idx];
+			elements[idx] = null;
 			return e;
 		} else {
-			System.out.println("EMPTY!");
+			if (verbose) System.out.println("EMPTY!");
 			return null;			
 		}
 	}
 	
 	public void insert(E elem) {
 		if (size == elements.length) {
-			System.out.println("FULL! Extending");
+			if (verbose) System.out.println("FULL! Extending");
 			Object[] new_elements = new Object[elements.length * 2];
 
 			System.arraycopy(elements, offset, new_elements, 1, elements.length - offset);
 			System.arraycopy(elements, 0, new_elements, elements.length - offset + 1, offset);
 
-			System.out.println(Arrays.toString(elements));
-			System.out.println(Arrays.toString(new_elements));
+			if (verbose) {
+				System.out.println(Arrays.toString(elements));
+				System.out.println(Arrays.toString(new_elements));
+			}
 
 			this.elements = new_elements;
 			this.offset = 1;
@@ -91,7 +109,7 @@ public class BQueue<E> {
 		offset = (offset - 1 + elements.length) % elements.length;
 		size++;
 		elements[offset] = elem;
-		System.out.println("Insert " + elem + " @ index " + offset + " offset " + offset + " size " + size);
+		if (verbose) System.out.println("Insert " + elem + " @ index " + offset + " offset " + offset + " size " + size);
 	}
 	
 	
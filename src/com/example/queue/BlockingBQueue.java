@@ -0,0 +1,197 @@
+package com.example.queue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.example.util.LatencyHistogram;
+
+/** A bounded blocking queue on top of the {@link BQueue} ring where the way threads wait for space or for
+ * elements is a pluggable {@link WaitStrategy}.
+ *
+ * The ring itself is guarded by a ReentrantLock. Spinning strategies spin on a volatile copy of the size
+ * outside the lock and only take the lock once the queue looks ready, BLOCKING waits on the conditions of the
+ * lock. Unlike synchronized and Object.wait() a ReentrantLock does not pin the carrier thread of a virtual
+ * thread so thousands of virtual consumers can wait cheaply with BLOCKING.
+ *
+ * Every put and take records its latency (including waiting) in a histogram so the strategies can be compared.
+ *
+ * @author jozseforosz
+ *
+ * @param <E>
+ */
+public class BlockingBQueue<E> {
+
+	private final BQueue<E> queue;
+	private final int capacity;
+	private final WaitStrategy strategy;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	/** Copy of queue.size() which can be read by spinning threads without the lock */
+	private volatile int count;
+
+	private final LatencyHistogram putLatency;
+	private final LatencyHistogram takeLatency;
+
+	public BlockingBQueue(int capacity, WaitStrategy strategy) {
+		assert capacity > 0;
+		this.queue = new BQueue<E>(capacity);
+		this.queue.setVerbose(false);
+		this.capacity = capacity;
+		this.strategy = strategy;
+		this.putLatency = new LatencyHistogram("put " + strategy);
+		this.takeLatency = new LatencyHistogram("take " + strategy);
+	}
+
+	/** Adds the element, waiting for space as long as needed */
+	public void put(E elem) throws InterruptedException {
+		offer(elem, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/** Adds the element, waiting for space at most timeout. Returns false if the queue stayed full. */
+	public boolean offer(E elem, long timeout, TimeUnit unit) throws InterruptedException {
+		assert elem != null;
+
+		long start = System.nanoTime();
+		long deadline = start + unit.toNanos(timeout); // may wrap but deadline - now is still right
+
+		lock.lockInterruptibly();
+		try {
+			while (count == capacity) {
+				if (!await(notFull, capacity, deadline))
+					return false;
+			}
+			queue.enqueue(elem);
+			count++;
+			if (strategy == WaitStrategy.BLOCKING)
+				notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+
+		putLatency.record(System.nanoTime() - start);
+		return true;
+	}
+
+	/** Removes the first element, waiting for one as long as needed */
+	public E take() throws InterruptedException {
+		return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/** Removes the first element waiting at most timeout for one. Returns null if the queue stayed empty. */
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long start = System.nanoTime();
+		long deadline = start + unit.toNanos(timeout);
+		E e;
+
+		lock.lockInterruptibly();
+		try {
+			while (count == 0) {
+				if (!await(notEmpty, 0, deadline))
+					return null;
+			}
+			e = queue.dequeue();
+			count--;
+			if (strategy == WaitStrategy.BLOCKING)
+				notFull.signal();
+		} finally {
+			lock.unlock();
+		}
+
+		takeLatency.record(System.nanoTime() - start);
+		return e;
+	}
+
+	/** Waits (with the lock held on entry and on exit) while the count is 'busy' or until the deadline.
+	 * Returns false if the deadline passed. */
+	private boolean await(Condition condition, int busy, long deadline) throws InterruptedException {
+		long remaining = deadline - System.nanoTime();
+		if (remaining <= 0)
+			return false;
+
+		if (strategy == WaitStrategy.BLOCKING) {
+			condition.awaitNanos(remaining);
+			return true;
+		}
+
+		// Spin outside of the lock so the other side can make progress
+		lock.unlock();
+		try {
+			int attempt = 0;
+			while (count == busy && (remaining = deadline - System.nanoTime()) > 0)
+				strategy.idle(attempt++, remaining);
+		} finally {
+			lock.lock();
+		}
+		return true;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public WaitStrategy getStrategy() {
+		return strategy;
+	}
+
+	public LatencyHistogram getPutLatency() {
+		return putLatency;
+	}
+
+	public LatencyHistogram getTakeLatency() {
+		return takeLatency;
+	}
+
+	/** Runs producers and consumers against each strategy and dumps the latencies */
+	public static void main(String[] args) throws InterruptedException {
+		final int producers = 2;
+		final int consumers = 2;
+		final int perProducer = 200000;
+
+		for (WaitStrategy strategy : WaitStrategy.values()) {
+			BlockingBQueue<Integer> q = new BlockingBQueue<Integer>(1024, strategy);
+			Thread[] threads = new Thread[producers + consumers];
+
+			for (int p = 0; p < producers; p++) {
+				threads[p] = new Thread(() -> {
+					try {
+						for (int i = 0; i < perProducer; i++)
+							q.put(i);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+			}
+			for (int c = 0; c < consumers; c++) {
+				threads[producers + c] = new Thread(() -> {
+					try {
+						for (int i = 0; i < perProducer * producers / consumers; i++)
+							q.take();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+			}
+
+			long start = System.nanoTime();
+			for (Thread t : threads)
+				t.start();
+			for (Thread t : threads)
+				t.join();
+			long runtime = System.nanoTime() - start;
+
+			System.out.println(strategy + " moved " + perProducer * producers + " elements in " + runtime / 1000000 + " ms");
+			System.out.println("  " + q.getPutLatency());
+			System.out.println("  " + q.getTakeLatency());
+		}
+
+		BlockingBQueue<Integer> q = new BlockingBQueue<Integer>(1, WaitStrategy.PARK_BACKOFF);
+		System.out.println("Timed out take: " + q.poll(10, TimeUnit.MILLISECONDS));
+		System.out.println("Offer: " + q.offer(1, 10, TimeUnit.MILLISECONDS));
+		System.out.println("Timed out offer: " + q.offer(2, 10, TimeUnit.MILLISECONDS));
+	}
+
+}
@@ -0,0 +1,202 @@
+package com.example.queue;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A small fork/join scheduler on top of {@link WorkStealingDeque}. Every worker thread owns a deque, forked tasks
+ * are pushed to the deque of the current worker and idle workers steal from the top of a random other deque.
+ * Since the top holds the oldest (and usually largest) tasks a steal tends to grab a big chunk of work.
+ *
+ * A join() never blocks the worker: while the task isn't done it runs tasks from its own deque or steals. Idle
+ * workers wait with {@link WaitStrategy#PARK_BACKOFF}.
+ *
+ * Unlike the common ForkJoinPool it counts executed tasks, steals and failed steals so it can be tuned.
+ *
+ * @author jozseforosz
+ *
+ */
+public class StealingPool {
+
+	/** A unit of work, subclasses implement compute() and may fork() and join() other tasks inside it */
+	public abstract static class Task implements Runnable {
+
+		private volatile boolean done;
+		private volatile Throwable failure;
+
+		protected abstract void compute();
+
+		@Override
+		public final void run() {
+			try {
+				compute();
+			} catch (Throwable e) {
+				failure = e; // even an Error, the joiner would wait forever otherwise
+			} finally {
+				done = true;
+			}
+		}
+
+		/** Schedules the task on the deque of the current worker. Must be called from inside another task. */
+		public final void fork() {
+			currentWorker().deque.push(this);
+		}
+
+		/** Waits for the task to complete by running other tasks in the meantime */
+		public final void join() {
+			currentWorker().helpUntil(this);
+			rethrow();
+		}
+
+		/** Throws what compute() threw, unchecked ones as they are */
+		private void rethrow() {
+			Throwable f = failure;
+			if (f instanceof RuntimeException)
+				throw (RuntimeException) f;
+			if (f instanceof Error)
+				throw (Error) f;
+			if (f != null)
+				throw new RuntimeException(f);
+		}
+
+		public final boolean isDone() {
+			return done;
+		}
+	}
+
+	private class Worker extends Thread {
+
+		final WorkStealingDeque<Task> deque = new WorkStealingDeque<Task>(256);
+
+		Worker(int index) {
+			super("stealing-worker-" + index);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			int attempt = 0;
+			while (!shutdown) {
+				if (runOne()) {
+					attempt = 0;
+				} else {
+					try {
+						WaitStrategy.PARK_BACKOFF.idle(attempt++, Long.MAX_VALUE);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}
+
+		/** Runs tasks until the given one is done */
+		void helpUntil(Task task) {
+			int attempt = 0;
+			while (!task.isDone()) {
+				if (runOne()) {
+					attempt = 0;
+				} else if (attempt++ < WaitStrategy.SPIN_LIMIT) {
+					Thread.onSpinWait(); // the task is being run by a thief
+				} else {
+					Thread.yield();
+				}
+			}
+		}
+
+		/** Runs one task from the own deque, the submissions or a victim. Returns false if there was nothing to do */
+		boolean runOne() {
+			Task t = deque.pop();
+			if (t == null)
+				t = submissions.poll();
+			if (t == null)
+				t = steal();
+			if (t == null)
+				return false;
+
+			t.run();
+			executed.incrementAndGet();
+			return true;
+		}
+
+		private Task steal() {
+			int start = ThreadLocalRandom.current().nextInt(workers.length);
+			for (int i = 0; i < workers.length; i++) {
+				Worker victim = workers[(start + i) % workers.length];
+				if (victim == this || victim.deque.isEmpty())
+					continue;
+				Task t = victim.deque.steal();
+				if (t != null) {
+					steals.incrementAndGet();
+					return t;
+				}
+				failedSteals.incrementAndGet();
+			}
+			return null;
+		}
+	}
+
+	private final Worker[] workers;
+	private final ConcurrentLinkedQueue<Task> submissions = new ConcurrentLinkedQueue<Task>();
+	private volatile boolean shutdown;
+
+	private final AtomicLong executed = new AtomicLong();
+	private final AtomicLong steals = new AtomicLong();
+	private final AtomicLong failedSteals = new AtomicLong();
+
+	public StealingPool(int parallelism) {
+		assert parallelism > 0;
+		workers = new Worker[parallelism];
+		for (int i = 0; i < parallelism; i++)
+			workers[i] = new Worker(i);
+		for (Worker w : workers)
+			w.start();
+	}
+
+	public StealingPool() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/** Runs the task in the pool and waits for it to complete. Can be called from any thread. */
+	public <T extends Task> T invoke(T task) {
+		if (Thread.currentThread() instanceof StealingPool.Worker) {
+			// Already in a pool - just run it
+			task.run();
+		} else {
+			submissions.add(task);
+			int attempt = 0;
+			while (!task.isDone()) {
+				try {
+					WaitStrategy.PARK_BACKOFF.idle(attempt++, Long.MAX_VALUE);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while waiting for task", e);
+				}
+			}
+		}
+		((Task) task).rethrow();
+		return task;
+	}
+
+	/** Stops the workers once they are out of work to do */
+	public void shutdown() {
+		shutdown = true;
+	}
+
+	public int getParallelism() {
+		return workers.length;
+	}
+
+	@Override
+	public String toString() {
+		return "StealingPool of " + workers.length + " executed " + executed + " stolen " + steals + " failed steals "
+				+ failedSteals;
+	}
+
+	private static Worker currentWorker() {
+		Thread t = Thread.currentThread();
+		if (!(t instanceof StealingPool.Worker))
+			throw new IllegalStateException("fork() and join() must be called from a task running in a StealingPool");
+		return (Worker) t;
+	}
+
+}
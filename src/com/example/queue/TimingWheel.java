@@ -0,0 +1,347 @@
+package com.example.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/** Hashed hierarchical timing wheel to expire a large number of timers, a replacement for DelayQueue.
+ *
+ * DelayQueue is a heap so every insert and removal is O(log n) under a single lock and cancelling a timer is a
+ * linear search. Here time is counted in ticks and every level of the wheel is a ring of 2^bits buckets (rolling
+ * over just like the array in {@link BQueue}). Level 0 has a bucket for every tick, a bucket on level 1 covers a
+ * full round of level 0 etc. A timer goes into the lowest level that can hold its deadline so scheduling is O(1).
+ *
+ * Every time level 0 rolls over to bucket 0 the next bucket of level 1 is 'cascaded': its timers are redistributed
+ * into the lower levels (and level 2 is cascaded when level 1 rolls over). A timer is moved at most once per level.
+ *
+ * Buckets are intrusive doubly linked lists of the timers so cancel() is also O(1). Expired timers of a tick are
+ * handed over to the callback in a single batch.
+ *
+ * @author jozseforosz
+ *
+ * @param <E>
+ */
+public class TimingWheel<E> {
+
+	/** Handle of a scheduled timer */
+	public static final class Timeout<E> {
+		private final TimingWheel<E> wheel;
+		private final E payload;
+		private final long deadline;
+
+		private Timeout<E> prev;
+		private Timeout<E> next;
+		private int bucket = -1; // -1 if not on the wheel (expired or cancelled)
+
+		private Timeout(TimingWheel<E> wheel, E payload, long deadline) {
+			this.wheel = wheel;
+			this.payload = payload;
+			this.deadline = deadline;
+		}
+
+		/** Removes the timer from the wheel. Returns false if it has already expired or was cancelled. */
+		public boolean cancel() {
+			return wheel.cancel(this);
+		}
+
+		public E getPayload() {
+			return payload;
+		}
+
+		/** The tick at which this timer expires */
+		public long getDeadline() {
+			return deadline;
+		}
+	}
+
+	private final int bits;
+	private final int mask;
+	private final int levels;
+	private final long tickNanos;
+
+	private final Timeout<E>[] buckets;
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private volatile long tick; // all timers with a deadline <= tick have expired
+	private int pending;
+
+	private final Consumer<List<E>> onExpiry;
+
+	private volatile Thread ticker;
+
+	/**
+	 * @param tick length of a tick
+	 * @param bits number of buckets on a level is 2^bits
+	 * @param levels number of levels, the wheel spans 2^(bits*levels) ticks. Timers further out are parked on
+	 * the top level and cascaded again until they fit
+	 * @param onExpiry gets the payload of all timers expired in a tick. Every tick has a new list which the callback
+	 * can keep.
+	 */
+	@SuppressWarnings("unchecked")
+	public TimingWheel(long tick, TimeUnit unit, int bits, int levels, Consumer<List<E>> onExpiry) {
+		assert bits > 0 && levels > 0 && bits * levels < 63;
+		this.bits = bits;
+		this.mask = (1 << bits) - 1;
+		this.levels = levels;
+		this.tickNanos = unit.toNanos(tick);
+		this.buckets = (Timeout<E>[]) new Timeout<?>[levels << bits];
+		this.onExpiry = onExpiry;
+	}
+
+	/** A wheel of 4 levels with 256 buckets each which is 2^32 ticks */
+	public TimingWheel(long tick, TimeUnit unit, Consumer<List<E>> onExpiry) {
+		this(tick, unit, 8, 4, onExpiry);
+	}
+
+	/** Schedules a timer to expire after the delay, rounded up to a whole number of ticks */
+	public Timeout<E> schedule(E payload, long delay, TimeUnit unit) {
+		long nanos = unit.toNanos(delay);
+		return scheduleTicks(payload, (nanos + tickNanos - 1) / tickNanos);
+	}
+
+	/** Schedules a timer to expire after the given number of ticks (at least one) */
+	public Timeout<E> scheduleTicks(E payload, long ticks) {
+		lock.lock();
+		try {
+			Timeout<E> t = new Timeout<E>(this, payload, tick + Math.max(1, ticks));
+			add(t);
+			pending++;
+			return t;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean cancel(Timeout<E> t) {
+		lock.lock();
+		try {
+			if (t.bucket < 0)
+				return false;
+			unlink(t);
+			pending--;
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Moves the wheel forward by the given number of ticks and runs the callback for every tick with expiries.
+	 * Used by the ticker thread but can be called directly when driving the wheel by hand, even while it runs: the
+	 * expiries of a tick are taken off the wheel under the lock so every timer is handed over exactly once. */
+	public void advance(long ticks) {
+		for (long i = 0; i < ticks; i++) {
+			List<E> batch = null;
+			lock.lock();
+			try {
+				if (pending == 0) {
+					// nothing to expire or cascade, jump to the end
+					tick += ticks - i;
+					return;
+				}
+				long c = ++tick;
+				if ((c & mask) == 0) {
+					int level = 1;
+					while (level < levels && cascade(level, c) == 0)
+						level++;
+				}
+				Timeout<E> t = detach((int) (c & mask));
+				if (t != null)
+					batch = new ArrayList<E>();
+				while (t != null) {
+					batch.add(t.payload);
+					pending--;
+					t = t.next;
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			if (batch != null)
+				onExpiry.accept(batch);
+		}
+	}
+
+	/** Starts a daemon thread which advances the wheel with the clock */
+	public synchronized void start() {
+		if (ticker != null)
+			return;
+
+		ticker = new Thread(() -> {
+			long startNanos = System.nanoTime();
+			long startTick = tick;
+			while (ticker == Thread.currentThread()) {
+				long elapsed = System.nanoTime() - startNanos;
+				long due = startTick + elapsed / tickNanos - tick;
+				if (due > 0)
+					advance(due);
+				else
+					LockSupport.parkNanos(tickNanos - elapsed % tickNanos);
+			}
+		}, "timing-wheel");
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+
+	/** Stops the ticker thread, pending timers stay on the wheel */
+	public synchronized void stop() {
+		Thread t = ticker;
+		ticker = null;
+		if (t != null)
+			LockSupport.unpark(t);
+	}
+
+	/** Number of timers waiting to expire */
+	public int size() {
+		lock.lock();
+		try {
+			return pending;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getTick() {
+		return tick;
+	}
+
+	/** Moves the timers of the current bucket of the level into the lower levels, returns the index of the bucket */
+	private int cascade(int level, long c) {
+		int idx = (int) ((c >>> (bits * level)) & mask);
+		Timeout<E> t = detach((level << bits) + idx);
+		while (t != null) {
+			Timeout<E> next = t.next;
+			add(t);
+			t = next;
+		}
+		return idx;
+	}
+
+	/** Puts the timer into the bucket of the lowest level which reaches its deadline */
+	private void add(Timeout<E> t) {
+		long delta = t.deadline - tick;
+		long max = (1L << (bits * levels)) - 1;
+		if (delta < 0)
+			delta = 0;
+		else if (delta > max)
+			delta = max; // too far out: park at the end of the wheel, it'll cascade again
+
+		int level = 0;
+		while (level < levels - 1 && delta >= 1L << (bits * (level + 1)))
+			level++;
+
+		int idx = (int) (((tick + delta) >>> (bits * level)) & mask);
+		int b = (level << bits) + idx;
+
+		t.bucket = b;
+		t.prev = null;
+		t.next = buckets[b];
+		if (t.next != null)
+			t.next.prev = t;
+		buckets[b] = t;
+	}
+
+	private void unlink(Timeout<E> t) {
+		if (t.prev != null)
+			t.prev.next = t.next;
+		else
+			buckets[t.bucket] = t.next;
+		if (t.next != null)
+			t.next.prev = t.prev;
+		t.prev = t.next = null;
+		t.bucket = -1;
+	}
+
+	/** Empties a bucket and returns its list. Timers keep their 'next' links so the list can still be walked. */
+	private Timeout<E> detach(int b) {
+		Timeout<E> head = buckets[b];
+		buckets[b] = null;
+		for (Timeout<E> t = head; t != null; t = t.next) {
+			t.bucket = -1;
+			t.prev = null;
+		}
+		return head;
+	}
+
+	/** Element of the DelayQueue for the benchmark */
+	private static class Delay implements Delayed {
+		final long deadline;
+
+		Delay(long deadline) {
+			this.deadline = deadline;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			return Long.compare(deadline, ((Delay) o).deadline);
+		}
+	}
+
+	/** Benchmark against a DelayQueue, the number of timers can be given as the argument (10M by default) */
+	public static void main(String[] args) throws InterruptedException {
+		final int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		final long spread = 2000; // timers expire within 2 seconds
+		Random r = new Random();
+		long[] delays = new long[count];
+		for (int i = 0; i < count; i++)
+			delays[i] = 1 + r.nextInt((int) spread);
+
+		// Timing wheel driven by hand, one tick is a millisecond
+		final long[] expired = new long[1];
+		TimingWheel<Integer> wheel = new TimingWheel<Integer>(1, TimeUnit.MILLISECONDS, batch -> expired[0] += batch.size());
+		List<Timeout<Integer>> timeouts = new ArrayList<Timeout<Integer>>(count);
+		Integer payload = 1;
+
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++)
+			timeouts.add(wheel.schedule(payload, delays[i], TimeUnit.MILLISECONDS));
+		System.out.println("Wheel scheduled " + count + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+		start = System.nanoTime();
+		for (int i = 0; i < count; i += 10)
+			timeouts.get(i).cancel();
+		System.out.println("Wheel cancelled " + count / 10 + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+		start = System.nanoTime();
+		wheel.advance(spread);
+		System.out.println("Wheel expired " + expired[0] + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+		timeouts = null;
+
+		// DelayQueue, it needs real time to pass
+		DelayQueue<Delay> dq = new DelayQueue<Delay>();
+		long now = System.nanoTime();
+		start = System.nanoTime();
+		for (int i = 0; i < count; i++)
+			dq.offer(new Delay(now + TimeUnit.MILLISECONDS.toNanos(delays[i])));
+		System.out.println("DelayQueue scheduled " + count + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+		System.out.println("DelayQueue cancel is a linear search, skipped");
+
+		Thread.sleep(spread);
+		start = System.nanoTime();
+		int polled = 0;
+		while (dq.poll() != null)
+			polled++;
+		System.out.println("DelayQueue expired " + polled + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+		// And the wheel running on its own thread
+		TimingWheel<String> clock = new TimingWheel<String>(10, TimeUnit.MILLISECONDS,
+				batch -> System.out.println("Expired " + batch));
+		clock.start();
+		clock.schedule("first", 50, TimeUnit.MILLISECONDS);
+		clock.schedule("second", 100, TimeUnit.MILLISECONDS);
+		clock.schedule("cancelled", 100, TimeUnit.MILLISECONDS).cancel();
+		Thread.sleep(300);
+		clock.stop();
+	}
+
+}
@@ -0,0 +1,47 @@
+package com.example.queue;
+
+import java.util.concurrent.locks.LockSupport;
+
+/** The ways a thread can wait for a {@link BlockingBQueue} to change state.
+ *
+ * Spinning gives the lowest latency but burns a core per waiting thread, parking and blocking free the core
+ * (and the carrier thread of a virtual thread) at the cost of a wake up.
+ *
+ * @author jozseforosz
+ *
+ */
+public enum WaitStrategy {
+
+	/** Spins on the CPU forever, lowest latency when there is a core for every waiting thread */
+	BUSY_SPIN,
+
+	/** Spins for a while then yields the CPU to other threads between checks */
+	SPIN_YIELD,
+
+	/** Spins for a while then parks with an exponentially growing timeout */
+	PARK_BACKOFF,
+
+	/** Waits on a condition of the queue lock and gets signalled on change. Cheapest with many waiting threads */
+	BLOCKING;
+
+	static final int SPIN_LIMIT = 100;
+	static final long MIN_PARK_NANOS = 1_000;
+	static final long MAX_PARK_NANOS = 1_000_000;
+
+	/** Waits a bit for the attempt'th time (starting at 0) but never longer than remaining ns.
+	 * Not used for BLOCKING which waits on the condition instead. */
+	void idle(int attempt, long remaining) throws InterruptedException {
+		if (Thread.interrupted())
+			throw new InterruptedException();
+
+		if (this == BUSY_SPIN || attempt < SPIN_LIMIT) {
+			Thread.onSpinWait();
+		} else if (this == SPIN_YIELD) {
+			Thread.yield();
+		} else {
+			int shift = Math.min(attempt - SPIN_LIMIT, 10);
+			LockSupport.parkNanos(Math.min(Math.min(MIN_PARK_NANOS << shift, MAX_PARK_NANOS), remaining));
+		}
+	}
+
+}
@@ -0,0 +1,174 @@
+package com.example.queue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/** Lock free Chase-Lev work stealing deque. It has the same shape as {@link BQueue}: the owner thread
+ * does push() and pop() at the bottom like a stack while any number of thieves steal() from the top like
+ * dequeue() - except it's safe to steal from other threads at the same time.
+ *
+ * Like in {@link AQueue} 'top' and 'bottom' only ever increase and the index in the array is the value modulo
+ * the array length. Unlike AQueue they are longs so they will practically never overrun. The array is a power of
+ * two so the modulo is a mask and it doubles when full just like the other queues.
+ *
+ * Only the owner moves 'bottom' so it's a plain volatile, thieves race for 'top' with a CAS. The only conflict between
+ * the owner and a thief is over the last element, in this case the owner also does a CAS on 'top' in pop().
+ *
+ * Taken slots are nulled so the deque doesn't keep finished elements alive. pop() nulls its own slot, but a thief
+ * can't: after its CAS the owner may already have wrapped around and pushed a new element into the same slot. So
+ * only the owner ever writes the array and it nulls the stolen slots below 'top' on its next push() or pop().
+ *
+ * @author jozseforosz
+ *
+ * @param <E>
+ */
+public class WorkStealingDeque<E> {
+
+	private volatile AtomicReferenceArray<E> elements;
+	private final AtomicLong top = new AtomicLong();
+	private volatile long bottom;
+	private long cleared; // the slots below are null, only used by the owner
+
+	public WorkStealingDeque(int size) {
+		int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1; // next power of 2
+		this.elements = new AtomicReferenceArray<E>(capacity);
+	}
+
+	/** Adds an element at the bottom. Must only be called by the owner thread. */
+	public void push(E elem) {
+		long b = bottom;
+		long t = top.get();
+		AtomicReferenceArray<E> a = elements;
+
+		if (b - t >= a.length()) {
+			a = grow(a, t, b);
+		} else {
+			clearStolen(a, t);
+		}
+		a.set((int) (b & (a.length() - 1)), elem);
+		bottom = b + 1; // volatile write publishes the element to the thieves
+	}
+
+	/** Removes the element at the bottom (the last pushed). Must only be called by the owner thread. */
+	public E pop() {
+		long b = bottom - 1;
+		AtomicReferenceArray<E> a = elements;
+		bottom = b; // claim the slot first, thieves will see it before they CAS top
+
+		long t = top.get();
+		if (t > b) {
+			// it was empty
+			bottom = b + 1;
+			return null;
+		}
+
+		clearStolen(a, t);
+		int i = (int) (b & (a.length() - 1));
+		E e = a.get(i);
+		if (t == b) {
+			// last element - race the thieves for it, a winning thief leaves the slot to clearStolen()
+			boolean won = top.compareAndSet(t, t + 1);
+			bottom = b + 1;
+			if (!won)
+				return null;
+		}
+		a.set(i, null);
+		return e;
+	}
+
+	/** Nulls the slots taken by thieves since the last call, t is a value of top read after bottom was written */
+	private void clearStolen(AtomicReferenceArray<E> a, long t) {
+		for (long i = Math.max(cleared, t - a.length()); i < t; i++)
+			a.set((int) (i & (a.length() - 1)), null);
+		if (t > cleared)
+			cleared = t;
+	}
+
+	/** Removes the element at the top (the first pushed). Can be called by any thread. Returns null if the deque
+	 * is empty or another thread won the race for the element. */
+	public E steal() {
+		long t = top.get();
+		long b = bottom;
+		if (t >= b)
+			return null;
+
+		AtomicReferenceArray<E> a = elements;
+		E e = a.get((int) (t & (a.length() - 1)));
+		if (!top.compareAndSet(t, t + 1))
+			return null; // lost the race to another thief or the owner
+		return e;
+	}
+
+	/** Number of elements - only a snapshot when other threads are stealing */
+	public int size() {
+		long s = bottom - top.get();
+		return s < 0 ? 0 : (int) s;
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/** Doubles the array. The old array stays intact so thieves still reading it get the right element. */
+	private AtomicReferenceArray<E> grow(AtomicReferenceArray<E> a, long t, long b) {
+		AtomicReferenceArray<E> na = new AtomicReferenceArray<E>(a.length() * 2);
+		for (long i = t; i < b; i++)
+			na.set((int) (i & (na.length() - 1)), a.get((int) (i & (a.length() - 1))));
+		elements = na;
+		cleared = t;
+		return na;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		final int count = 1000000;
+		final WorkStealingDeque<Integer> deque = new WorkStealingDeque<Integer>(4);
+		final boolean[] seen = new boolean[count];
+		final AtomicInteger stolen = new AtomicInteger();
+
+		Thread[] thieves = new Thread[3];
+		final AtomicInteger taken = new AtomicInteger();
+		for (int i = 0; i < thieves.length; i++) {
+			thieves[i] = new Thread(() -> {
+				while (taken.get() < count) {
+					Integer e = deque.steal();
+					if (e != null) {
+						seen[e] = true;
+						stolen.incrementAndGet();
+						taken.incrementAndGet();
+					}
+				}
+			});
+			thieves[i].start();
+		}
+
+		// The owner pushes everything and pops half of it back
+		int popped = 0;
+		for (int i = 0; i < count; i++) {
+			deque.push(i);
+			if ((i & 1) == 1) {
+				Integer e = deque.pop();
+				if (e != null) {
+					seen[e] = true;
+					popped++;
+					taken.incrementAndGet();
+				}
+			}
+		}
+		Integer e;
+		while ((e = deque.pop()) != null) {
+			seen[e] = true;
+			popped++;
+			taken.incrementAndGet();
+		}
+		for (Thread t : thieves)
+			t.join();
+
+		int missing = 0;
+		for (boolean s : seen)
+			if (!s)
+				missing++;
+		System.out.println("Popped " + popped + " stolen " + stolen + " missing " + missing);
+	}
+
+}
@@ -9,7 +9,6 @@ import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Random;
-import java.util.concurrent.DelayQueue;
 
 /** Playing with intervals, detecting overlaps and optimizing overlaps */
 public class Intervals {
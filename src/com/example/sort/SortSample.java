@@ -6,6 +6,7 @@ import java.util.Queue;
 import java.util.Random;
 import java.util.function.Consumer;
 
+import com.example.queue.StealingPool;
 import com.example.util.Measured;
 
 /** Featuras all typical sorting algorithms */
@@ -69,6 +70,18 @@ public class SortSample extends Measured {
 
 	/** Implement a quick sort by partitioning the array around a randomly picked pivot */
 	private static void qsort(int[] arr, int low, int high) {
+		int[] ij = partition(arr, low, high);
+		int i = ij[0], j = ij[1];
+
+		if (j > low)
+			qsort(arr, low, j);
+		if (i < high)
+			qsort(arr, i, high);
+	}
+
+	/** Hoare partition around the middle element: afterwards low..j are all <= the pivot and i..high are all >=
+	 * (i > j). Returns i and j. */
+	private static int[] partition(int[] arr, int low, int high) {
 		int pivot = arr[low + (high - low) / 2];
 		int i = low, j = high;
 		while (i <= j) {
@@ -85,11 +98,51 @@ public class SortSample extends Measured {
 				j--;
 			}
 		}
+		return new int[] { i, j };
+	}
 
-		if (j > low)
-			qsort(arr, low, j);
-		if (i < high)
-			qsort(arr, i, high);
+	/** Below this size a subarray is sorted sequentially, forking costs more than it gains */
+	private static final int PARALLEL_THRESHOLD = 8192;
+
+	/** Parallel quick sort on a work stealing pool. Partitioning is the same as in qsort but the left side
+	 * is forked so an idle worker can steal it while this thread carries on with the right side. */
+	public static void parallelQuicksort(int[] arr, StealingPool pool) {
+		if (arr.length > 1)
+			pool.invoke(new QsortTask(arr, 0, arr.length - 1));
+	}
+
+	/** Task sorting a subarray for the parallel quick sort */
+	private static class QsortTask extends StealingPool.Task {
+		private final int[] arr;
+		private final int low;
+		private final int high;
+
+		QsortTask(int[] arr, int low, int high) {
+			this.arr = arr;
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override
+		protected void compute() {
+			if (high - low < PARALLEL_THRESHOLD) {
+				qsort(arr, low, high);
+				return;
+			}
+
+			int[] ij = partition(arr, low, high);
+			int i = ij[0], j = ij[1];
+
+			QsortTask left = null;
+			if (j > low) {
+				left = new QsortTask(arr, low, j);
+				left.fork();
+			}
+			if (i < high)
+				new QsortTask(arr, i, high).compute();
+			if (left != null)
+				left.join();
+		}
 	}
 
 	/** Wrapper for merge sort */
@@ -174,5 +227,17 @@ public class SortSample extends Measured {
 		measure("merge", SortSample::mergesort, arr5);
 		System.out.println(Arrays.toString(arr5));
 
+		// Parallel vs sequential on something big enough to be worth it
+		int[] big = new int[20000000];
+		for (int i = 0; i < big.length; i++)
+			big[i] = r.nextInt();
+		int[] big2 = big.clone();
+
+		StealingPool pool = new StealingPool();
+		measure("quick on " + big.length, SortSample::quicksort, big);
+		measure("parallel quick on " + big2.length, (int[] a) -> parallelQuicksort(a, pool), big2);
+		System.out.println(pool + ", same result " + Arrays.equals(big, big2));
+		pool.shutdown();
+
 	}
 }
@@ -0,0 +1,165 @@
+package com.example.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/** A size bounded cache with least recently used eviction and optionally a TinyLFU admission filter, with hit rate
+ * metrics.
+ *
+ * Plain LRU lets a burst of one time keys push out everything that is asked for all the time. With TinyLFU the
+ * cache keeps an approximate frequency of every key seen (a count-min sketch of 4 bit counters, halved every now and
+ * then so old popularity fades) and when the cache is full a new key only gets in if it was seen more often than the
+ * least recently used one it would replace.
+ *
+ * Lookups and updates lock the cache (a LinkedHashMap in access order changes on every get), the value is computed
+ * outside the lock so a slow computation doesn't block the other threads. Two threads missing the same key may both
+ * compute it.
+ *
+ * @author jozseforosz
+ *
+ */
+public class BoundedCache<K, V> {
+
+	private final int maxSize;
+	private final FrequencySketch sketch; // null for plain LRU
+	private final LinkedHashMap<K, V> map;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder rejections = new LongAdder();
+
+	public BoundedCache(int maxSize, boolean tinyLfu) {
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("Cache size must be positive");
+		this.maxSize = maxSize;
+		this.sketch = tinyLfu ? new FrequencySketch(maxSize) : null;
+		this.map = new LinkedHashMap<K, V>(16, 0.75f, true);
+	}
+
+	/** The cached value or null, counts as a hit or a miss */
+	public V get(K key) {
+		V v;
+		synchronized (this) {
+			if (sketch != null)
+				sketch.increment(key.hashCode());
+			v = map.get(key);
+		}
+		(v != null ? hits : misses).increment();
+		return v;
+	}
+
+	/** Adds the value unless the admission filter rejects it */
+	public synchronized void put(K key, V value) {
+		if (map.containsKey(key) || map.size() < maxSize) {
+			map.put(key, value);
+			return;
+		}
+
+		Iterator<Map.Entry<K, V>> lru = map.entrySet().iterator();
+		Map.Entry<K, V> victim = lru.next();
+		if (sketch != null && sketch.frequency(key.hashCode()) <= sketch.frequency(victim.getKey().hashCode())) {
+			rejections.increment();
+			return;
+		}
+		lru.remove();
+		evictions.increment();
+		map.put(key, value);
+	}
+
+	/** The cached value, or computes and (maybe) caches it */
+	public V computeIfAbsent(K key, Function<? super K, ? extends V> compute) {
+		V v = get(key);
+		if (v == null) {
+			v = compute.apply(key);
+			if (v != null)
+				put(key, v);
+		}
+		return v;
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	public long hits() {
+		return hits.sum();
+	}
+
+	public long misses() {
+		return misses.sum();
+	}
+
+	/** Hits per lookup, 0 if there were no lookups */
+	public double hitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	@Override
+	public String toString() {
+		return (sketch != null ? "TinyLFU" : "LRU") + " cache " + size() + "/" + maxSize + " hits " + hits() + " misses "
+				+ misses() + String.format(" (%.1f%%)", hitRate() * 100) + " evictions " + evictions.sum()
+				+ " rejections " + rejections.sum();
+	}
+
+	/** Count-min sketch of 4 bit counters, 16 in a long, with 4 hash functions */
+	private static class FrequencySketch {
+		private final long[] table;
+		private final int mask;
+		private final int sampleSize;
+		private int additions;
+
+		FrequencySketch(int maxSize) {
+			int size = Integer.highestOneBit(Math.max(maxSize, 16) - 1) << 1;
+			this.table = new long[size];
+			this.mask = size - 1;
+			this.sampleSize = 10 * maxSize;
+		}
+
+		int frequency(int hash) {
+			int min = 15;
+			for (int i = 0; i < 4; i++) {
+				int h = rehash(hash, i);
+				min = Math.min(min, (int) ((table[h & mask] >>> counter(h)) & 0xF));
+			}
+			return min;
+		}
+
+		void increment(int hash) {
+			boolean added = false;
+			for (int i = 0; i < 4; i++) {
+				int h = rehash(hash, i);
+				int shift = counter(h);
+				if (((table[h & mask] >>> shift) & 0xF) < 15) {
+					table[h & mask] += 1L << shift;
+					added = true;
+				}
+			}
+			if (added && ++additions == sampleSize)
+				halve();
+		}
+
+		/** Ages all counters so the frequencies follow what is popular now */
+		private void halve() {
+			for (int i = 0; i < table.length; i++)
+				table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+			additions /= 2;
+		}
+
+		/** Bit offset of the counter within the long */
+		private static int counter(int h) {
+			return ((h >>> 24) & 0xF) << 2;
+		}
+
+		private static int rehash(int hash, int i) {
+			int h = (hash + i) * (0x9E3779B9 + 2 * i);
+			return h ^ (h >>> 16);
+		}
+	}
+
+}
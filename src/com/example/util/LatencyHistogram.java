@@ -0,0 +1,76 @@
+package com.example.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** A lock free histogram of latencies in nanoseconds. Buckets are powers of two so bucket i counts the
+ * samples between 2^(i-1) and 2^i - 1 ns. This keeps recording a single increment and the whole histogram
+ * 64 longs regardless of the number of samples.
+ *
+ * Percentiles are therefore only accurate to the power of two above the real value which is good enough to
+ * compare algorithms with each other.
+ *
+ * @author jozseforosz
+ *
+ */
+public class LatencyHistogram {
+
+	private final String name;
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+	public LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	/** Records a sample, can be called from any number of threads */
+	public void record(long nanos) {
+		buckets.incrementAndGet(bucketOf(nanos));
+	}
+
+	/** Number of samples recorded */
+	public long count() {
+		long count = 0;
+		for (int i = 0; i < buckets.length(); i++)
+			count += buckets.get(i);
+		return count;
+	}
+
+	/** Upper bound (in ns) of the given percentile (between 0 and 100) of the samples recorded */
+	public long percentile(double p) {
+		assert p >= 0 && p <= 100;
+
+		long total = count();
+		if (total == 0)
+			return 0;
+
+		long limit = (long) Math.ceil(total * p / 100);
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			seen += buckets.get(i);
+			if (seen >= limit && seen > 0)
+				return upperBoundOf(i);
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/** Clears all samples, eg. after warm up */
+	public void reset() {
+		for (int i = 0; i < buckets.length(); i++)
+			buckets.set(i, 0);
+	}
+
+	private static int bucketOf(long nanos) {
+		// bucket i holds [2^(i-1), 2^i - 1], positive longs end up in 1..63
+		return nanos <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(nanos);
+	}
+
+	private static long upperBoundOf(int bucket) {
+		return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return name + ": " + count() + " samples, p50 < " + percentile(50) + " ns, p99 < " + percentile(99)
+				+ " ns, p99.9 < " + percentile(99.9) + " ns, max < " + percentile(100) + " ns";
+	}
+
+}
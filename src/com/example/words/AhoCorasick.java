@@ -0,0 +1,77 @@
+package com.example.words;
+
+/** Aho-Corasick automaton over a Trie, which finds every dictionary word ending at every position of a text in a
+ * single left to right pass.
+ *
+ * The state is the node of the longest suffix of the text read so far that is a prefix of a word. If the trie has no
+ * edge for the next character the state falls back along the failure links (to the longest proper suffix that is in
+ * the trie) until one has it. The words ending at the current position are the state if it's a word and then the chain
+ * of output links, each pointing to the closest word on the failure chain.
+ *
+ * The trie numbers its nodes breadth first so the links are computed in a single loop over the nodes.
+ *
+ * @author jozseforosz
+ *
+ */
+public class AhoCorasick {
+
+	private final Trie trie;
+	private final int[] fail;
+	private final int[] output; // closest node on the failure chain which is a word, -1 if none
+
+	public AhoCorasick(Trie trie) {
+		this.trie = trie;
+		int n = trie.size();
+		this.fail = new int[n];
+		this.output = new int[n];
+		output[0] = -1;
+
+		for (int u = 0; u < n; u++) {
+			for (int v = trie.firstChild(u); v < trie.endChild(u); v++) {
+				if (u == 0) {
+					fail[v] = 0;
+				} else {
+					int f = fail[u];
+					int g;
+					while ((g = trie.next(f, trie.label(v))) < 0 && f != 0)
+						f = fail[f];
+					fail[v] = g < 0 ? 0 : g;
+				}
+				int f = fail[v];
+				output[v] = trie.isWord(f) ? f : output[f];
+			}
+		}
+	}
+
+	public Trie getTrie() {
+		return trie;
+	}
+
+	public int start() {
+		return 0;
+	}
+
+	/** The state after reading c */
+	public int step(int state, char c) {
+		int next;
+		while ((next = trie.next(state, c)) < 0 && state != 0)
+			state = fail[state];
+		return next < 0 ? 0 : next;
+	}
+
+	/** The first word ending at the state (the longest), -1 if there is none. The rest come from nextWord. */
+	public int firstWord(int state) {
+		return trie.isWord(state) ? state : output[state];
+	}
+
+	/** The next shorter word ending at the same position as the word node, -1 if it was the last */
+	public int nextWord(int wordNode) {
+		return output[wordNode];
+	}
+
+	/** Length of the word of a node */
+	public int length(int wordNode) {
+		return trie.depth(wordNode);
+	}
+
+}
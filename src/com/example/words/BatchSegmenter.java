@@ -0,0 +1,206 @@
+package com.example.words;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.example.util.Measured;
+
+/** Splits millions of strings into words on all cores over one shared, immutable dictionary.
+ *
+ * Every input is split with WordSearcher.segment which keeps nothing between calls, prints nothing and only reads
+ * the dictionary, so the inputs are simply spread over the common fork-join pool by a parallel stream. Results come
+ * either in the order of the inputs or, faster, in whatever order the threads finish. Every batch measures itself.
+ *
+ * @author jozseforosz
+ *
+ */
+public class BatchSegmenter extends Measured {
+
+	/** What a batch did and how fast */
+	public static class Stats {
+		private final long inputs;
+		private final long segmented;
+		private final long chars;
+		private final long nanos;
+
+		Stats(long inputs, long segmented, long chars, long nanos) {
+			this.inputs = inputs;
+			this.segmented = segmented;
+			this.chars = chars;
+			this.nanos = nanos;
+		}
+
+		public long getInputs() {
+			return inputs;
+		}
+
+		/** Number of inputs that could be split into words */
+		public long getSegmented() {
+			return segmented;
+		}
+
+		public long getChars() {
+			return chars;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		public double inputsPerSecond() {
+			return nanos == 0 ? 0 : inputs * 1e9 / nanos;
+		}
+
+		public double charsPerSecond() {
+			return nanos == 0 ? 0 : chars * 1e9 / nanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d inputs (%d segmented, %d chars) in %d ms: %.0f inputs/s, %.1f MB/s", inputs,
+					segmented, chars, nanos / 1000000, inputsPerSecond(), charsPerSecond() / (1 << 20));
+		}
+	}
+
+	private final WordSearcher searcher;
+
+	public BatchSegmenter(PrefixDictionary dictionary) {
+		this.searcher = new WordSearcher(dictionary);
+	}
+
+	public BatchSegmenter(Iterable<String> words) {
+		this(new Trie(words));
+	}
+
+	/** The words of one input, null if it can't be split */
+	public String[] segment(String input) {
+		return searcher.segment(input);
+	}
+
+	/**
+	 * Splits all inputs in parallel and hands every input with its words (null if it can't be split) to the sink. If
+	 * ordered the sink gets them one by one in the order of the stream, otherwise from any thread in any order so it
+	 * has to be thread safe.
+	 */
+	public Stats segment(Stream<String> inputs, boolean ordered, BiConsumer<String, String[]> sink) {
+		LongAdder count = new LongAdder();
+		LongAdder segmented = new LongAdder();
+		LongAdder chars = new LongAdder();
+		long start = System.nanoTime();
+
+		Stream<Result> results = inputs.parallel().map(input -> {
+			String[] words = searcher.segment(input);
+			count.increment();
+			chars.add(input.length());
+			if (words != null)
+				segmented.increment();
+			return new Result(input, words);
+		});
+		if (ordered)
+			results.forEachOrdered(res -> sink.accept(res.input, res.words));
+		else
+			results.unordered().forEach(res -> sink.accept(res.input, res.words));
+
+		return new Stats(count.sum(), segmented.sum(), chars.sum(), System.nanoTime() - start);
+	}
+
+	private static class Result {
+		final String input;
+		final String[] words;
+
+		Result(String input, String[] words) {
+			this.input = input;
+			this.words = words;
+		}
+	}
+
+	/** The words of every input in the order of the inputs */
+	public List<String[]> segment(List<String> inputs) {
+		return inputs.parallelStream().map(searcher::segment).collect(Collectors.toList());
+	}
+
+	/**
+	 * Splits every line of a file and writes 'line TAB words separated by spaces' for each, or 'line TAB -' if it can't
+	 * be split. Unordered the lines are written as they are done.
+	 */
+	public Stats segmentFile(Path in, Path out, boolean ordered) throws IOException {
+		try (Stream<String> lines = Files.lines(in); BufferedWriter w = Files.newBufferedWriter(out)) {
+			return segment(lines, ordered, (input, words) -> {
+				String line = input + '\t' + (words == null ? "-" : String.join(" ", words)) + '\n';
+				try {
+					if (ordered) {
+						w.write(line);
+					} else {
+						synchronized (w) {
+							w.write(line);
+						}
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		Random r = new Random(1);
+		HashSet<String> dict = new HashSet<String>();
+		while (dict.size() < 50000) {
+			char[] w = new char[2 + r.nextInt(8)];
+			for (int i = 0; i < w.length; i++)
+				w[i] = (char) ('a' + r.nextInt(26));
+			dict.add(new String(w));
+		}
+		String[] words = dict.toArray(new String[0]);
+
+		// Tokens of 1-4 words, every tenth with a typo
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		List<String> tokens = new ArrayList<String>(size);
+		for (int t = 0; t < size; t++) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 1 + r.nextInt(4); i > 0; i--)
+				sb.append(words[r.nextInt(words.length)]);
+			if (t % 10 == 0)
+				sb.setCharAt(r.nextInt(sb.length()), '#');
+			tokens.add(sb.toString());
+		}
+
+		BatchSegmenter segmenter = new BatchSegmenter(dict);
+		System.out.println(String.join(" ", segmenter.segment(words[0] + words[1] + words[2])));
+
+		measure("sequential", () -> tokens.stream().filter(t -> segmenter.segment(t) != null).count());
+		measure("parallel list", () -> segmenter.segment(tokens).stream().filter(w -> w != null).count());
+
+		LongAdder splits = new LongAdder();
+		System.out.println("ordered: " + segmenter.segment(tokens.stream(), true, (t, w) -> splits.add(w == null ? 0 : w.length)));
+		System.out.println("unordered: " + segmenter.segment(tokens.stream(), false, (t, w) -> splits.add(w == null ? 0 : w.length)));
+
+		Path in = Files.createTempFile("tokens", ".txt");
+		Path out = Files.createTempFile("segmented", ".txt");
+		try {
+			Files.write(in, tokens);
+			System.out.println("file ordered: " + segmenter.segmentFile(in, out, true));
+			System.out.println("file unordered: " + segmenter.segmentFile(in, out, false));
+			try (Stream<String> result = Files.lines(out)) {
+				System.out.println(result.findFirst().orElse(""));
+			}
+		} finally {
+			Files.delete(in);
+			Files.delete(out);
+		}
+	}
+
+}
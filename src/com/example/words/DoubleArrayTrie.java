@@ -0,0 +1,328 @@
+package com.example.words;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import com.example.util.Measured;
+
+/** A dictionary compiled into a double-array trie in a binary file and used straight from a memory mapped file.
+ *
+ * A double-array trie keeps a trie in two int arrays: the child of state s with the character code c is the state
+ * t = base[s] + c, if check[t] == s (otherwise there is no such child). Building it means finding a base for every
+ * node where all of its children fit into free cells, after that a step is two array reads.
+ *
+ * The file is the header, the table of character codes and the two arrays, little endian like most CPUs so there is
+ * nothing to swap:
+ * <pre>
+ *   int magic, int cells, int maxLength, int words
+ *   char codes[65536]      code of every character, 0 if no word has it
+ *   int base[cells]        the highest bit marks the states which are the end of a word
+ *   int check[cells]       -1 for free cells
+ * </pre>
+ * Opening it is a mapping with nothing to parse or copy, so startup costs nothing and processes using the same file
+ * share the pages of the page cache. Lookups only read the mapped buffer so an instance can be shared by threads.
+ *
+ * @author jozseforosz
+ *
+ */
+public class DoubleArrayTrie extends Measured implements PrefixDictionary {
+
+	private static final int MAGIC = 0x44415431; // "DAT1"
+	private static final int HEADER = 4 * Integer.BYTES;
+	private static final int CODES = 1 << 16;
+	private static final int WORD = 0x80000000;
+	private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	/** A free cell is not tried as the place of a first child any more after this many misses */
+	private static final int MAX_MISSES = 16;
+
+	private final CharBuffer codes;
+	private final IntBuffer base;
+	private final IntBuffer check;
+	private final int cells;
+	private final int maxLength;
+	private final int words;
+
+	private DoubleArrayTrie(ByteBuffer file) throws IOException {
+		file.order(ORDER);
+		if (file.getInt(0) != MAGIC)
+			throw new IOException("Not a double-array trie file");
+		this.cells = file.getInt(Integer.BYTES);
+		this.maxLength = file.getInt(2 * Integer.BYTES);
+		this.words = file.getInt(3 * Integer.BYTES);
+
+		this.codes = file.position(HEADER).slice().order(ORDER).asCharBuffer().limit(CODES);
+		int arrays = HEADER + CODES * Character.BYTES;
+		this.base = file.position(arrays).slice().order(ORDER).asIntBuffer().limit(cells);
+		this.check = file.position(arrays + cells * Integer.BYTES).slice().order(ORDER).asIntBuffer().limit(cells);
+	}
+
+	/** Maps a file made by compile */
+	public static DoubleArrayTrie open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new DoubleArrayTrie(buffer);
+		}
+	}
+
+	/** The dictionary build step: compiles the words into a file for open */
+	public static void compile(Iterable<String> dictionary, Path file) throws IOException {
+		Trie trie = new Trie(dictionary);
+
+		// Codes 1..sigma in the order of the characters
+		char[] codes = new char[CODES];
+		for (int v = 1; v < trie.size(); v++)
+			codes[trie.label(v)] = 1;
+		char sigma = 0;
+		for (int c = 0; c < CODES; c++)
+			if (codes[c] != 0)
+				codes[c] = ++sigma;
+
+		Builder b = new Builder(trie.size() + sigma + 1);
+		int[] state = new int[trie.size()]; // trie node -> cell, the root is cell 0
+		for (int u = 0; u < trie.size(); u++) {
+			int s = state[u];
+			int from = trie.firstChild(u);
+			int to = trie.endChild(u);
+			int begin = 0;
+			if (from < to) {
+				begin = b.place(codes, trie, from, to, s);
+				for (int v = from; v < to; v++)
+					state[v] = begin + codes[trie.label(v)];
+			}
+			b.base[s] = begin | (trie.isWord(u) ? WORD : 0);
+		}
+
+		int cells = b.size;
+		long size = HEADER + (long) CODES * Character.BYTES + 2L * cells * Integer.BYTES;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			out.order(ORDER);
+			out.putInt(MAGIC).putInt(cells).putInt(trie.maxLength()).putInt(trie.words());
+			out.asCharBuffer().put(codes);
+			out.position(out.position() + CODES * Character.BYTES);
+			out.asIntBuffer().put(b.base, 0, cells);
+			out.position(out.position() + cells * Integer.BYTES);
+			out.asIntBuffer().put(b.check, 0, cells);
+			out.force();
+		}
+	}
+
+	/** The growing arrays while compiling, with the free cells in a linked list */
+	private static class Builder {
+		int[] base;
+		int[] check;
+		int size = 1; // cells up to the last used one, the root is cell 0
+
+		private int[] nextFree;
+		private int[] prevFree;
+		private byte[] misses; // how many times a free cell was tried as the first child and didn't fit
+		private int firstFree = -1;
+		private int lastFree = -1;
+
+		Builder(int capacity) {
+			base = new int[0];
+			check = new int[0];
+			nextFree = new int[0];
+			prevFree = new int[0];
+			misses = new byte[0];
+			ensure(capacity);
+			unlink(0); // the root
+		}
+
+		/** A base where all children (from..to-1 of the trie) get a free cell, and takes those cells */
+		int place(char[] codes, Trie trie, int from, int to, int parent) {
+			int first = codes[trie.label(from)];
+			int last = codes[trie.label(to - 1)];
+			for (int f = firstFree;; ) {
+				if (f < 0) {
+					// Tried all, the new cells are appended to the list
+					f = check.length;
+					ensure(f + last + 1);
+				}
+				int begin = f - first;
+				int after = nextFree[f];
+				if (begin >= 0) {
+					ensure(begin + last + 1);
+					boolean fits = true;
+					for (int v = from + 1; v < to && fits; v++)
+						fits = check[begin + codes[trie.label(v)]] < 0;
+					if (fits) {
+						for (int v = from; v < to; v++) {
+							int t = begin + codes[trie.label(v)];
+							check[t] = parent;
+							unlink(t);
+						}
+						size = Math.max(size, begin + last + 1);
+						return begin;
+					}
+					if (++misses[f] == MAX_MISSES)
+						unlink(f); // it stays free but isn't worth trying any more
+				}
+				f = after;
+			}
+		}
+
+		private void unlink(int cell) {
+			int p = prevFree[cell];
+			int n = nextFree[cell];
+			if (p >= 0)
+				nextFree[p] = n;
+			else if (firstFree == cell)
+				firstFree = n;
+			else
+				return; // not in the list
+			if (n >= 0)
+				prevFree[n] = p;
+			else
+				lastFree = p;
+			prevFree[cell] = -1;
+			nextFree[cell] = -1;
+		}
+
+		private void ensure(int capacity) {
+			if (capacity <= check.length)
+				return;
+			int old = check.length;
+			int grown = Math.max(capacity, old + old / 2);
+			base = Arrays.copyOf(base, grown);
+			check = Arrays.copyOf(check, grown);
+			nextFree = Arrays.copyOf(nextFree, grown);
+			prevFree = Arrays.copyOf(prevFree, grown);
+			misses = Arrays.copyOf(misses, grown);
+			Arrays.fill(check, old, grown, -1);
+
+			// The new cells go to the end of the free list
+			for (int c = old; c < grown; c++) {
+				prevFree[c] = lastFree;
+				nextFree[c] = -1;
+				if (lastFree >= 0)
+					nextFree[lastFree] = c;
+				else
+					firstFree = c;
+				lastFree = c;
+			}
+		}
+	}
+
+	@Override
+	public int root() {
+		return 0;
+	}
+
+	@Override
+	public int next(int node, char c) {
+		int code = codes.get(c);
+		if (code == 0)
+			return -1;
+		int t = (base.get(node) & ~WORD) + code;
+		return t < cells && check.get(t) == node ? t : -1;
+	}
+
+	@Override
+	public boolean isWord(int node) {
+		return (base.get(node) & WORD) != 0;
+	}
+
+	@Override
+	public int maxLength() {
+		return maxLength;
+	}
+
+	@Override
+	public int words() {
+		return words;
+	}
+
+	/** Depth first over the characters that have a code, trying each as a child of every node */
+	@Override
+	public void forEachWord(Consumer<? super String> action) {
+		StringBuilder alphabet = new StringBuilder();
+		for (int c = 0; c < CODES; c++)
+			if (codes.get(c) != 0)
+				alphabet.append((char) c);
+		forEachWord(root(), alphabet.toString().toCharArray(), new StringBuilder(), action);
+	}
+
+	private void forEachWord(int node, char[] alphabet, StringBuilder prefix, Consumer<? super String> action) {
+		if (isWord(node))
+			action.accept(prefix.toString());
+		for (char c : alphabet) {
+			int child = next(node, c);
+			if (child >= 0) {
+				prefix.append(c);
+				forEachWord(child, alphabet, prefix, action);
+				prefix.setLength(prefix.length() - 1);
+			}
+		}
+	}
+
+	/** Number of cells of the arrays */
+	public int cells() {
+		return cells;
+	}
+
+	public static void main(String[] args) throws IOException {
+		Random r = new Random(1);
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		String[] words = new String[size];
+		for (int i = 0; i < size; i++) {
+			char[] w = new char[3 + r.nextInt(10)];
+			for (int j = 0; j < w.length; j++)
+				w[j] = (char) ('a' + r.nextInt(26));
+			words[i] = new String(w);
+		}
+
+		Path file = Files.createTempFile("dictionary", ".dat");
+		try {
+			measure("compiling " + size + " words", () -> {
+				try {
+					compile(Arrays.asList(words), file);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				return file.toFile().length() / 1024 + " KB";
+			});
+
+			// What startup costs with a HashSet and with the mapped file
+			Set<String> set = new HashSet<String>();
+			measure("loading a HashSet", () -> set.addAll(Arrays.asList(words)));
+			DoubleArrayTrie dat = measure("opening the mapped file", () -> {
+				try {
+					return open(file);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			System.out.println(dat.words() + " words in " + dat.cells() + " cells");
+
+			measure("HashSet contains", () -> Arrays.stream(words).filter(set::contains).count());
+			measure("double-array contains", () -> Arrays.stream(words).filter(dat::contains).count());
+			measure("double-array not contains", () -> Arrays.stream(words).filter(w -> dat.contains(w + "x")).count());
+
+			StringBuilder sb = new StringBuilder();
+			while (sb.length() < 100000)
+				sb.append(words[r.nextInt(size)]);
+			String text = sb.toString();
+			WordSearcher ws = new WordSearcher(dat);
+			measure("trieMadeOf of 100KB with the mapped dictionary", () -> ws.trieMadeOf(text));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+}
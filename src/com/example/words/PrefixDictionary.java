@@ -0,0 +1,38 @@
+package com.example.words;
+
+import java.util.function.Consumer;
+
+/** A dictionary that can be walked one character at a time, so a word search can look at every word starting at a
+ * position without making substrings. Nodes are ints, a walk starts at root() and every character moves to a child
+ * node, the node of a prefix that no word starts with is -1.
+ *
+ * @author jozseforosz
+ *
+ */
+public interface PrefixDictionary {
+
+	int root();
+
+	/** The node after the character c from node, -1 if no word goes on with c */
+	int next(int node, char c);
+
+	/** True if the path to the node spells a whole word */
+	boolean isWord(int node);
+
+	/** Length of the longest word, no walk goes further than this */
+	int maxLength();
+
+	/** Number of different words */
+	int words();
+
+	/** Calls the action with every word, in the order of their characters */
+	void forEachWord(Consumer<? super String> action);
+
+	default boolean contains(CharSequence word) {
+		int node = root();
+		for (int i = 0; i < word.length() && node >= 0; i++)
+			node = next(node, word.charAt(i));
+		return node >= 0 && isWord(node);
+	}
+
+}
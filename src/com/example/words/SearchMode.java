@@ -0,0 +1,30 @@
+package com.example.words;
+
+/** The algorithms of {@link WordSearcher} that tell if a string is made of words, for picking one with
+ * WordSearcher.madeOf.
+ *
+ * @author jozseforosz
+ *
+ */
+public enum SearchMode {
+
+	/** Recursion trying every prefix, exponential in the worst case */
+	NAIVE,
+
+	/** The memo of the suffixes that can be split, filled right to left */
+	MEMO,
+
+	/** Bottom up table of the suffixes, quadratic with a substring per cell */
+	TABLE,
+
+	/** Walks the trie from every reachable position, O(n * L) */
+	TRIE,
+
+	/** One pass with the Aho-Corasick automaton */
+	AHO_CORASICK,
+
+	/** Bit-parallel shift-and over all characters of the words, for small dictionaries of short words (big ones
+	 * get TRIE) */
+	SHIFT_AND;
+
+}
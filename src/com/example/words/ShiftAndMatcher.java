@@ -0,0 +1,118 @@
+package com.example.words;
+
+/** Word break as a bit-parallel NFA simulation (multi-pattern shift-and).
+ *
+ * The words are laid end to end, every character of every word is one bit, 64 in a long. A set bit means the word
+ * matched up to that character starting at a position that can be reached with whole words, so the bits are all
+ * the partial words still alive. Reading a character shifts every bit to the next character of its word, adds the
+ * first characters of all words if the current position is reachable and keeps only the bits where the word has
+ * the character read (the precomputed mask of the character). The next position is reachable if a last character
+ * of a word survived.
+ *
+ * So a character costs a few operations per 64 dictionary characters no matter how many words start or end at the
+ * position, which pays off for small dictionaries of short words over a small alphabet, like the a..ab worst case.
+ * Big dictionaries are better off with the trie.
+ *
+ * @author jozseforosz
+ *
+ */
+public class ShiftAndMatcher {
+
+	/** The most longs the masks may take, alphabet * stateBits / 64, bigger dictionaries are for the trie */
+	public static final long MAX_MASK_LONGS = 1 << 20;
+
+	private final int longs;
+	private final long[] starts; // the first character of every word
+	private final long[] ends; // the last character of every word
+	private final char[] codes; // character -> index of its mask + 1, 0 if no word has it
+	private final long[][] masks; // the characters of the words that are the given character
+
+	public ShiftAndMatcher(Iterable<String> words) {
+		if (maskLongs(words) > MAX_MASK_LONGS)
+			throw new IllegalArgumentException("The masks of the words would be over " + MAX_MASK_LONGS + " longs");
+
+		int bits = 0;
+		char[] codes = new char[Character.MAX_VALUE + 1];
+		int alphabet = 0;
+		for (String w : words) {
+			bits += w.length();
+			for (int i = 0; i < w.length(); i++)
+				if (codes[w.charAt(i)] == 0)
+					codes[w.charAt(i)] = (char) ++alphabet;
+		}
+
+		this.longs = (bits + 63) >> 6;
+		this.starts = new long[longs];
+		this.ends = new long[longs];
+		this.codes = codes;
+		this.masks = new long[alphabet][longs];
+
+		int bit = 0;
+		for (String w : words) {
+			if (w.isEmpty())
+				continue;
+			starts[bit >> 6] |= 1L << bit;
+			for (int i = 0; i < w.length(); i++, bit++)
+				masks[codes[w.charAt(i)] - 1][bit >> 6] |= 1L << bit;
+			ends[(bit - 1) >> 6] |= 1L << (bit - 1);
+		}
+	}
+
+	/** Number of longs the masks of the words would take: one mask per distinct character, each a bit per character
+	 * of the words */
+	public static long maskLongs(Iterable<String> words) {
+		long bits = 0;
+		boolean[] seen = new boolean[Character.MAX_VALUE + 1];
+		int alphabet = 0;
+		for (String w : words) {
+			bits += w.length();
+			for (int i = 0; i < w.length(); i++)
+				if (!seen[w.charAt(i)]) {
+					seen[w.charAt(i)] = true;
+					alphabet++;
+				}
+		}
+		return alphabet * ((bits + 63) >> 6);
+	}
+
+	/** Number of bits of the state, the total length of the words */
+	public int stateBits() {
+		return longs << 6;
+	}
+
+	/** True if the string is made of the words */
+	public boolean isMadeOf(CharSequence s) {
+		long[] state = new long[longs];
+		boolean reachable = true; // position 0
+
+		for (int i = 0; i < s.length(); i++) {
+			int code = codes[s.charAt(i)];
+			if (code == 0)
+				return false; // in no word at all
+			long[] mask = masks[code - 1];
+
+			long carry = 0;
+			long alive = 0;
+			boolean next = false;
+			for (int k = 0; k < longs; k++) {
+				long v = state[k];
+				// a last character shifted into the first one of the next word is dropped
+				long shifted = ((v << 1) | carry) & ~starts[k];
+				carry = v >>> 63;
+				if (reachable)
+					shifted |= starts[k];
+				shifted &= mask[k];
+				state[k] = shifted;
+				alive |= shifted;
+				next |= (shifted & ends[k]) != 0;
+			}
+
+			reachable = next;
+			if (alive == 0)
+				return false; // no word is going on and none can start
+		}
+
+		return reachable;
+	}
+
+}
@@ -0,0 +1,233 @@
+package com.example.words;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.ToDoubleFunction;
+
+/** All splits of a string into words as a graph instead of a list of strings.
+ *
+ * The nodes are the positions 0..n of the string, an edge i -> j is a word s[i..j). Every split is a path from 0 to
+ * n. There are at most n * L edges (L is the longest word) and they are found by walking the trie from every
+ * reachable position, then the edges that can't be continued to the end are dropped. So every path that is started
+ * can be finished which makes enumerating them cheap.
+ *
+ * The number of splits can be exponential but counting them is one pass backwards over the edges. Splits are
+ * produced lazily one at a time, in the order of WordSearcher.splitAll (shorter first word first, then the same for
+ * the rest), or the k best of them by a cost of the words (fewest words by default).
+ *
+ * @author jozseforosz
+ *
+ */
+public class SplitGraph {
+
+	private final String s;
+	private final int[] first; // edges of node i are first[i]..first[i+1]-1
+	private final int[] end; // the end of the word of an edge
+
+	public SplitGraph(PrefixDictionary dictionary, String s) {
+		this.s = s;
+		int n = s.length();
+
+		// All edges from the reachable positions
+		boolean[] reachable = new boolean[n + 1];
+		reachable[0] = true;
+		int[] from = new int[n + 2];
+		int[] to = new int[16];
+		int edges = 0;
+		for (int i = 0; i <= n; i++) {
+			from[i] = edges;
+			if (!reachable[i])
+				continue;
+			int node = dictionary.root();
+			for (int j = i; j < n; j++) {
+				node = dictionary.next(node, s.charAt(j));
+				if (node < 0)
+					break;
+				if (dictionary.isWord(node)) {
+					reachable[j + 1] = true;
+					if (edges == to.length)
+						to = Arrays.copyOf(to, edges * 2);
+					to[edges++] = j + 1;
+				}
+			}
+		}
+		from[n + 1] = edges;
+
+		// Keep the edges leading to a position from where the end can be reached
+		boolean[] finishes = new boolean[n + 1];
+		finishes[n] = true;
+		for (int i = n - 1; i >= 0; i--)
+			for (int e = from[i]; e < from[i + 1] && !finishes[i]; e++)
+				finishes[i] = finishes[to[e]];
+
+		this.first = new int[n + 2];
+		int kept = 0;
+		for (int i = 0; i <= n; i++) {
+			first[i] = kept;
+			if (finishes[i])
+				for (int e = from[i]; e < from[i + 1]; e++)
+					if (finishes[to[e]])
+						to[kept++] = to[e];
+		}
+		first[n + 1] = kept;
+		this.end = Arrays.copyOf(to, kept);
+	}
+
+	/** Number of word edges on some split */
+	public int edges() {
+		return end.length;
+	}
+
+	/** True if there is at least one split */
+	public boolean isSplittable() {
+		return s.isEmpty() || first[1] > first[0];
+	}
+
+	/** Number of different splits: ways(i) = sum of ways(j) over the edges i -> j, backwards from ways(n) = 1 */
+	public BigInteger countSplits() {
+		int n = s.length();
+		BigInteger[] ways = new BigInteger[n + 1];
+		ways[n] = BigInteger.ONE;
+		for (int i = n - 1; i >= 0; i--) {
+			BigInteger w = BigInteger.ZERO;
+			for (int e = first[i]; e < first[i + 1]; e++)
+				w = w.add(ways[end[e]]);
+			ways[i] = w;
+		}
+		return ways[0];
+	}
+
+	/** The splits one at a time as arrays of words, a depth first walk of the paths */
+	public Iterator<String[]> iterator() {
+		return new Iterator<String[]>() {
+			final int n = s.length();
+			final int[] at = new int[n + 1]; // the positions on the current path
+			final int[] edge = new int[n + 1]; // the edge taken from at[d]
+			int depth = 0;
+			boolean ready = isSplittable(); // the path up to depth is a split which wasn't returned yet
+
+			{
+				// The first path: always the first edge
+				while (ready && at[depth] < n) {
+					edge[depth] = first[at[depth]];
+					at[depth + 1] = end[edge[depth]];
+					depth++;
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				if (ready)
+					return true;
+				if (depth < 0)
+					return false;
+
+				// Back up to the last position with another edge, take it and then the first edges to the end
+				while (--depth >= 0 && edge[depth] + 1 >= first[at[depth] + 1])
+					;
+				if (depth < 0)
+					return false;
+				edge[depth]++;
+				at[depth + 1] = end[edge[depth]];
+				depth++;
+				while (at[depth] < n) {
+					edge[depth] = first[at[depth]];
+					at[depth + 1] = end[edge[depth]];
+					depth++;
+				}
+				ready = true;
+				return true;
+			}
+
+			@Override
+			public String[] next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				ready = false;
+				String[] words = new String[depth];
+				for (int d = 0; d < depth; d++)
+					words[d] = s.substring(at[d], at[d + 1]);
+				return words;
+			}
+		};
+	}
+
+	/** The k splits with the fewest words */
+	public List<String[]> best(int k) {
+		return best(k, w -> 1);
+	}
+
+	/**
+	 * The k splits with the lowest total cost of their words, cheapest first. Every node keeps its k cheapest paths to
+	 * the end, made from the k cheapest of its neighbours merged with a priority queue, so this is O(edges * k log k).
+	 */
+	public List<String[]> best(int k, ToDoubleFunction<String> cost) {
+		if (k <= 0)
+			throw new IllegalArgumentException("k must be positive");
+
+		int n = s.length();
+		double[] edgeCost = new double[end.length];
+		for (int i = 0; i < n; i++)
+			for (int e = first[i]; e < first[i + 1]; e++)
+				edgeCost[e] = cost.applyAsDouble(s.substring(i, end[e]));
+
+		// paths of node i: total[i][r] is the cost of its r'th cheapest path, which goes on edge via[i][r] and then
+		// the rank[i][r]'th path of the node there
+		double[][] total = new double[n + 1][];
+		int[][] via = new int[n + 1][];
+		int[][] rank = new int[n + 1][];
+		total[n] = new double[] { 0 };
+		via[n] = new int[] { -1 };
+		rank[n] = new int[] { -1 };
+
+		PriorityQueue<double[]> queue = new PriorityQueue<double[]>((a, b) -> Double.compare(a[0], b[0]));
+		for (int i = n - 1; i >= 0; i--) {
+			if (first[i] == first[i + 1])
+				continue;
+
+			queue.clear();
+			for (int e = first[i]; e < first[i + 1]; e++)
+				queue.add(new double[] { edgeCost[e] + total[end[e]][0], e, 0 });
+
+			double[] t = new double[k];
+			int[] v = new int[k];
+			int[] r = new int[k];
+			int found = 0;
+			while (found < k && !queue.isEmpty()) {
+				double[] top = queue.poll();
+				int e = (int) top[1];
+				int nr = (int) top[2];
+				t[found] = top[0];
+				v[found] = e;
+				r[found] = nr;
+				found++;
+				if (nr + 1 < total[end[e]].length)
+					queue.add(new double[] { edgeCost[e] + total[end[e]][nr + 1], e, nr + 1 });
+			}
+			total[i] = Arrays.copyOf(t, found);
+			via[i] = Arrays.copyOf(v, found);
+			rank[i] = Arrays.copyOf(r, found);
+		}
+
+		List<String[]> result = new ArrayList<String[]>();
+		if (total[0] == null)
+			return result;
+		for (int p = 0; p < total[0].length; p++) {
+			List<String> words = new ArrayList<String>();
+			for (int i = 0, r = p; i < n;) {
+				int e = via[i][r];
+				words.add(s.substring(i, end[e]));
+				r = rank[i][r];
+				i = end[e];
+			}
+			result.add(words.toArray(new String[0]));
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,290 @@
+package com.example.words;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import com.example.util.Measured;
+
+/** Word break of a stream of characters that comes in chunks, without having the whole input.
+ *
+ * The segmenter keeps the walks of the trie that are still going on, one from every reachable position that is less
+ * than the longest word back. Every character advances all of them, a walk at a word makes the new position
+ * reachable and starts a new walk from there. So checking costs O(L) per character and O(L) memory no matter how
+ * long the stream is, and after every chunk it tells if the input so far can be split into words.
+ *
+ * With a listener it also says which words are on every split of the input: a position that every reachable
+ * position still walking from can only be reached through is fixed for good (it dominates them). The words up to the
+ * latest such position are emitted as soon as it moves, with the text between two fixed positions that can be split
+ * in more than one way emitted as ambiguous. For this the text since the last fixed position is kept, together with
+ * the immediate dominator of every reachable position in it, so memory grows while the input stays ambiguous.
+ *
+ * @author jozseforosz
+ *
+ */
+public class StreamingSegmenter {
+
+	/** Gets the pieces of the input that are the same in every split, in order */
+	public interface Listener {
+		/** A word that is on every split */
+		void word(String word);
+
+		/** Text between two words on every split that can be split more than one way */
+		default void ambiguous(String text) {
+		}
+	}
+
+	private final PrefixDictionary dictionary;
+	private final Listener listener; // null if only checking
+
+	// The walks going on: start position and trie node
+	private long[] walkStart = new long[16];
+	private int[] walkNode = new int[16];
+	private int walks;
+
+	private long position; // characters read
+	private boolean reachable = true; // the input so far can be split
+	private boolean finished;
+
+	// Only with a listener: the text since the last fixed position base and for every position after it the
+	// immediate dominator and the only word ending there (both relative to base), -1 if unreachable or several
+	private long base;
+	private final StringBuilder pending = new StringBuilder();
+	private int[] idom = new int[16];
+	private int[] single = new int[16];
+
+	/** Checks the input only, O(L) memory */
+	public StreamingSegmenter(PrefixDictionary dictionary) {
+		this(dictionary, null);
+	}
+
+	public StreamingSegmenter(PrefixDictionary dictionary, Listener listener) {
+		this.dictionary = dictionary;
+		this.listener = listener;
+		walkStart[0] = 0;
+		walkNode[0] = dictionary.root();
+		walks = 1;
+	}
+
+	/** Reads a chunk, returns if the input so far can be split */
+	public boolean append(CharSequence chunk) {
+		checkOpen();
+		for (int i = 0; i < chunk.length(); i++)
+			step(chunk.charAt(i));
+		return reachable;
+	}
+
+	/** Same for len characters of buf from off */
+	public boolean append(char[] buf, int off, int len) {
+		checkOpen();
+		if (off < 0 || len < 0 || off + len > buf.length)
+			throw new IndexOutOfBoundsException("Chunk " + off + "+" + len + " out of " + buf.length);
+		for (int i = off; i < off + len; i++)
+			step(buf[i]);
+		return reachable;
+	}
+
+	/** The input so far can be split into words */
+	public boolean isSegmentable() {
+		return reachable;
+	}
+
+	/** Some continuation of the input so far may still be split, false means it never will */
+	public boolean canContinue() {
+		return walks > 0;
+	}
+
+	/** Number of characters read */
+	public long position() {
+		return position;
+	}
+
+	/** The end of the input: emits the rest of the words if it can be split and returns if it can */
+	public boolean finish() {
+		checkOpen();
+		finished = true;
+		if (reachable && listener != null)
+			emit((int) (position - base));
+		return reachable;
+	}
+
+	private void checkOpen() {
+		if (finished)
+			throw new IllegalStateException("The input is already finished");
+	}
+
+	private void step(char c) {
+		long p = ++position;
+		int maxLength = dictionary.maxLength();
+		boolean reach = false;
+		int dominator = -1;
+		int word = -1;
+
+		int kept = 0;
+		for (int w = 0; w < walks; w++) {
+			int node = dictionary.next(walkNode[w], c);
+			if (node < 0)
+				continue;
+			long start = walkStart[w];
+			if (dictionary.isWord(node)) {
+				if (listener != null) {
+					int from = (int) (start - base);
+					dominator = reach ? lca(dominator, from) : from;
+					word = reach ? -1 : from;
+				}
+				reach = true;
+			}
+			if (p - start < maxLength) {
+				walkStart[kept] = start;
+				walkNode[kept] = node;
+				kept++;
+			}
+		}
+		walks = kept;
+
+		if (reach) {
+			if (walks == walkStart.length) {
+				walkStart = Arrays.copyOf(walkStart, walks * 2);
+				walkNode = Arrays.copyOf(walkNode, walks * 2);
+			}
+			walkStart[walks] = p;
+			walkNode[walks] = dictionary.root();
+			walks++;
+		}
+		reachable = reach;
+
+		if (listener != null) {
+			pending.append(c);
+			int at = (int) (p - base);
+			if (at == idom.length) {
+				idom = Arrays.copyOf(idom, at * 2);
+				single = Arrays.copyOf(single, at * 2);
+			}
+			idom[at] = dominator;
+			single[at] = word;
+			commit();
+		}
+	}
+
+	/** The closest position that every split up to a and to b goes through */
+	private int lca(int a, int b) {
+		while (a != b) {
+			if (a > b)
+				a = idom[a];
+			else
+				b = idom[b];
+		}
+		return a;
+	}
+
+	/** Emits the words up to the position dominating all walks, which becomes the new base */
+	private void commit() {
+		if (walks == 0)
+			return;
+		int fixed = (int) (walkStart[0] - base);
+		for (int w = 1; w < walks && fixed > 0; w++)
+			fixed = lca(fixed, (int) (walkStart[w] - base));
+		if (fixed > 0)
+			emit(fixed);
+	}
+
+	private void emit(int fixed) {
+		// The dominators from the fixed position back to the base
+		int count = 0;
+		for (int at = fixed; at > 0; at = idom[at])
+			count++;
+		int[] chain = new int[count + 1];
+		for (int at = fixed, i = count; at > 0; at = idom[at])
+			chain[i--] = at;
+
+		for (int i = 1; i <= count; i++) {
+			String text = pending.substring(chain[i - 1], chain[i]);
+			if (single[chain[i]] == chain[i - 1])
+				listener.word(text);
+			else
+				listener.ambiguous(text);
+		}
+
+		pending.delete(0, fixed);
+		int rest = (int) (position - base) - fixed;
+		for (int at = 1; at <= rest; at++) {
+			idom[at] = idom[at + fixed] < 0 ? -1 : idom[at + fixed] - fixed;
+			single[at] = single[at + fixed] < 0 ? -1 : single[at + fixed] - fixed;
+		}
+		base += fixed;
+	}
+
+	/** Checks a whole stream in chunks, stops reading once no continuation can be split */
+	public static boolean isMadeOf(PrefixDictionary dictionary, Reader in) throws IOException {
+		StreamingSegmenter segmenter = new StreamingSegmenter(dictionary);
+		char[] buf = new char[8192];
+		int read;
+		while (segmenter.canContinue() && (read = in.read(buf)) >= 0)
+			segmenter.append(buf, 0, read);
+		return segmenter.canContinue() && segmenter.finish();
+	}
+
+	public static void main(String[] args) throws IOException {
+		Trie trie = new Trie(Arrays.asList("a", "an", "and", "the", "there", "here", "in", "on", "one", "cat", "at"));
+		StreamingSegmenter s = new StreamingSegmenter(trie, new Listener() {
+			@Override
+			public void word(String word) {
+				System.out.print("[" + word + "] ");
+			}
+
+			@Override
+			public void ambiguous(String text) {
+				System.out.print("[" + text + "?] ");
+			}
+		});
+		for (String chunk : new String[] { "thecat", "andthe", "reinon", "e" })
+			System.out.println(chunk + " -> " + s.append(chunk));
+		System.out.println("finish -> " + s.finish());
+
+		// A stream of about 50MB made of random words, never in memory as a whole
+		Random r = new Random(1);
+		HashSet<String> dict = new HashSet<String>();
+		while (dict.size() < 100000) {
+			char[] w = new char[2 + r.nextInt(8)];
+			for (int i = 0; i < w.length; i++)
+				w[i] = (char) ('a' + r.nextInt(26));
+			dict.add(new String(w));
+		}
+		String[] words = dict.toArray(new String[0]);
+		Trie big = new Trie(dict);
+		long size = 50L << 20;
+		Reader text = new Reader() {
+			long left = size;
+			String word = "";
+			int at;
+
+			@Override
+			public int read(char[] cbuf, int off, int len) {
+				int n = 0;
+				while (n < len && (left > 0 || at < word.length())) {
+					if (at == word.length()) {
+						word = words[r.nextInt(words.length)];
+						at = 0;
+					}
+					cbuf[off + n++] = word.charAt(at++);
+					left--;
+				}
+				return n == 0 ? -1 : n;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		Measured.measure("checking a 50MB stream", () -> {
+			try {
+				return isMadeOf(big, text);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+	}
+
+}
@@ -0,0 +1,224 @@
+package com.example.words;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.example.util.Measured;
+
+/** Counts how many times each of many patterns occurs in a text as a subsequence (see WordInWord), in a single pass
+ * over the text for all of them.
+ *
+ * The count of a pattern only depends on the pattern, so patterns with the same prefix share the counts of that
+ * prefix: the patterns are put in a Trie and every node has a counter, how many times its prefix was seen so far
+ * (the root, the empty prefix, is 1). A character c of the text adds the counter of the parent to every node with
+ * the label c, deeper nodes first so the parent still has its count from before c. The nodes are indexed by their
+ * label, so a character only touches the nodes it changes, and memory is a few ints per node, at most the total
+ * length of the patterns.
+ *
+ * Counts are exact (longs until one would overflow, then BigIntegers) or mod a modulus.
+ *
+ * @author jozseforosz
+ *
+ */
+public class SubsequenceCounter {
+
+	/** Files are mapped in parts of this size */
+	static final long MAP_SIZE = 1L << 30;
+
+	private final List<String> patterns;
+	private final Trie trie;
+	private final int[] parent;
+	private final int[][] byLabel; // the nodes with the character as label, deepest first
+	private final long modulus; // 0 to count exactly
+	private long[] count;
+	private BigInteger[] big; // instead of count after an overflow
+	private long length;
+
+	/** Exact counts */
+	public SubsequenceCounter(List<String> patterns) {
+		this(patterns, 0);
+	}
+
+	/** Counts mod modulus, 0 for exact counts */
+	public SubsequenceCounter(List<String> patterns, long modulus) {
+		if (patterns == null)
+			throw new IllegalArgumentException("Patterns must not be null");
+		for (String p : patterns)
+			if (p == null)
+				throw new IllegalArgumentException("Patterns must not be null");
+		if (modulus < 0)
+			throw new IllegalArgumentException("Modulus must be positive");
+
+		this.patterns = new ArrayList<String>(patterns);
+		this.trie = new Trie(this.patterns);
+		this.modulus = modulus;
+
+		int nodes = trie.size();
+		this.parent = new int[nodes];
+		for (int u = 0; u < nodes; u++)
+			for (int v = trie.firstChild(u); v < trie.endChild(u); v++)
+				parent[v] = u;
+
+		// Breadth first numbering: going down the node numbers is going up the depths
+		int[] sizes = new int[Character.MAX_VALUE + 1];
+		for (int v = 1; v < nodes; v++)
+			sizes[trie.label(v)]++;
+		this.byLabel = new int[Character.MAX_VALUE + 1][];
+		for (int v = nodes - 1; v >= 1; v--) {
+			char c = trie.label(v);
+			if (byLabel[c] == null)
+				byLabel[c] = new int[sizes[c]];
+			byLabel[c][byLabel[c].length - sizes[c]--] = v;
+		}
+
+		this.count = new long[nodes];
+		count[0] = modulus == 1 ? 0 : 1;
+	}
+
+	/** Reads the next character of the text */
+	public void add(char c) {
+		int[] nodes = byLabel[c];
+		if (nodes == null)
+			return;
+		length++;
+
+		if (big != null) {
+			addBig(nodes, 0);
+		} else if (modulus > 0) {
+			for (int v : nodes) {
+				long s = count[v] - (modulus - count[parent[v]]); // count[v] + count[parent] - modulus without overflow
+				count[v] = s < 0 ? s + modulus : s;
+			}
+		} else {
+			for (int k = 0; k < nodes.length; k++) {
+				int v = nodes[k];
+				long s = count[v] + count[parent[v]];
+				if (s < 0) {
+					big = new BigInteger[count.length];
+					for (int i = 0; i < count.length; i++)
+						big[i] = BigInteger.valueOf(count[i]);
+					count = null;
+					addBig(nodes, k);
+					return;
+				}
+				count[v] = s;
+			}
+		}
+	}
+
+	private void addBig(int[] nodes, int from) {
+		for (int k = from; k < nodes.length; k++)
+			big[nodes[k]] = big[nodes[k]].add(big[parent[nodes[k]]]);
+	}
+
+	public void add(CharSequence text) {
+		for (int i = 0; i < text.length(); i++)
+			add(text.charAt(i));
+	}
+
+	public void add(Reader text) throws IOException {
+		char[] buf = new char[1 << 16];
+		int read;
+		while ((read = text.read(buf)) >= 0)
+			for (int i = 0; i < read; i++)
+				add(buf[i]);
+	}
+
+	/** Reads a file through memory maps, every byte is a character (ISO-8859-1) */
+	public void add(Path text) throws IOException {
+		try (FileChannel channel = FileChannel.open(text, StandardOpenOption.READ)) {
+			long size = channel.size();
+			for (long position = 0; position < size; position += MAP_SIZE) {
+				MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_SIZE, size - position));
+				while (map.hasRemaining())
+					add((char) (map.get() & 0xFF));
+			}
+		}
+	}
+
+	/** Number of characters read that are in some pattern, the others change nothing */
+	public long matchedLength() {
+		return length;
+	}
+
+	/** Number of trie nodes, the counters kept */
+	public int counters() {
+		return trie.size();
+	}
+
+	/** The count of a pattern in the text so far, 0 for the empty pattern (like WordInWord) */
+	public BigInteger count(String pattern) {
+		if (pattern == null)
+			throw new IllegalArgumentException("Pattern must not be null");
+		if (pattern.isEmpty())
+			return BigInteger.ZERO;
+		int node = trie.root();
+		for (int i = 0; i < pattern.length() && node >= 0; i++)
+			node = trie.next(node, pattern.charAt(i));
+		if (node < 0 || !trie.isWord(node))
+			throw new IllegalArgumentException("Not a pattern: " + pattern);
+		return big != null ? big[node] : BigInteger.valueOf(count[node]);
+	}
+
+	/** The counts of all patterns in the order they were given */
+	public BigInteger[] counts() {
+		BigInteger[] counts = new BigInteger[patterns.size()];
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = count(patterns.get(i));
+		return counts;
+	}
+
+	public static void main(String[] args) throws IOException {
+		SubsequenceCounter counter = new SubsequenceCounter(Arrays.asList("at", "attr", "act", "tt", "a"));
+		counter.add("attract");
+		System.out.println(Arrays.toString(counter.counts()) + " with " + counter.counters() + " counters");
+
+		// 2000 patterns over 4 letters in 1MB, one pass against one pass per pattern
+		Random r = new Random(1);
+		List<String> patterns = new ArrayList<String>();
+		for (int p = 0; p < 2000; p++) {
+			char[] c = new char[3 + r.nextInt(6)];
+			for (int i = 0; i < c.length; i++)
+				c[i] = "acgt".charAt(r.nextInt(4));
+			patterns.add(new String(c));
+		}
+		char[] c = new char[1 << 20];
+		for (int i = 0; i < c.length; i++)
+			c[i] = "acgt".charAt(r.nextInt(4));
+		String text = new String(c);
+		long modulus = 1_000_000_007L;
+
+		SubsequenceCounter all = new SubsequenceCounter(patterns, modulus);
+		System.out.println(patterns.size() + " patterns, " + all.counters() + " counters");
+		Measured.measure("all patterns in one pass", () -> {
+			all.add(text);
+			return all.count(patterns.get(0));
+		});
+		Measured.measure("the first 100 patterns one by one", () -> {
+			long first = 0;
+			for (int p = 99; p >= 0; p--) {
+				try {
+					first = WordInWord.countMod(patterns.get(p), new StringReader(text), modulus);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return first;
+		});
+
+		SubsequenceCounter exact = new SubsequenceCounter(patterns.subList(0, 10));
+		exact.add(text);
+		System.out.println(patterns.get(0) + " occurs " + exact.count(patterns.get(0)) + " times");
+	}
+
+}
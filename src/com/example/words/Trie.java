@@ -0,0 +1,187 @@
+package com.example.words;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/** A compact, immutable trie of a set of words.
+ *
+ * The words are sorted and the trie is built breadth first from ranges of them: the words under a node are a range
+ * sharing a prefix, and its children are the sub ranges with the same next character. So the nodes are numbered in
+ * breadth first order, the children of a node are consecutive numbers and sorted by character. The whole trie is
+ * a few arrays indexed by node, no objects per node and no maps.
+ *
+ * @author jozseforosz
+ *
+ */
+public class Trie implements PrefixDictionary {
+
+	/** Children lists up to this long are scanned, longer ones are binary searched */
+	private static final int LINEAR_SCAN = 8;
+
+	private final char[] label; // the character on the edge into the node
+	private final int[] firstChild; // children of node u are firstChild[u]..firstChild[u+1]-1
+	private final boolean[] word;
+	private final int[] depth;
+	private final int maxLength;
+	private final int words;
+
+	public Trie(Iterable<String> dictionary) {
+		String[] sorted = toSortedArray(dictionary);
+
+		int capacity = 16;
+		char[] label = new char[capacity];
+		int[] firstChild = new int[capacity + 1];
+		boolean[] word = new boolean[capacity];
+		int[] depth = new int[capacity];
+		int[] lo = new int[capacity]; // the range of words under the node
+		int[] hi = new int[capacity];
+
+		int nodes = 1; // the root
+		hi[0] = sorted.length;
+		int maxLength = 0;
+		int words = 0;
+
+		for (int u = 0; u < nodes; u++) {
+			int d = depth[u];
+			int i = lo[u];
+			if (i < hi[u] && sorted[i].length() == d) {
+				word[u] = true; // sorted so the word ending here comes first
+				words++;
+				maxLength = Math.max(maxLength, d);
+				i++;
+			}
+
+			firstChild[u] = nodes;
+			while (i < hi[u]) {
+				char c = sorted[i].charAt(d);
+				int j = i + 1;
+				while (j < hi[u] && sorted[j].charAt(d) == c)
+					j++;
+
+				if (nodes == capacity) {
+					capacity *= 2;
+					label = Arrays.copyOf(label, capacity);
+					firstChild = Arrays.copyOf(firstChild, capacity + 1);
+					word = Arrays.copyOf(word, capacity);
+					depth = Arrays.copyOf(depth, capacity);
+					lo = Arrays.copyOf(lo, capacity);
+					hi = Arrays.copyOf(hi, capacity);
+				}
+				label[nodes] = c;
+				depth[nodes] = d + 1;
+				lo[nodes] = i;
+				hi[nodes] = j;
+				nodes++;
+				i = j;
+			}
+		}
+		firstChild[nodes] = nodes;
+
+		this.label = Arrays.copyOf(label, nodes);
+		this.firstChild = Arrays.copyOf(firstChild, nodes + 1);
+		this.word = Arrays.copyOf(word, nodes);
+		this.depth = Arrays.copyOf(depth, nodes);
+		this.maxLength = maxLength;
+		this.words = words;
+	}
+
+	/** The words sorted without duplicates */
+	private static String[] toSortedArray(Iterable<String> dictionary) {
+		String[] all = new String[16];
+		int n = 0;
+		for (String w : dictionary) {
+			if (n == all.length)
+				all = Arrays.copyOf(all, n * 2);
+			all[n++] = w;
+		}
+		Arrays.sort(all, 0, n);
+
+		int distinct = 0;
+		for (int i = 0; i < n; i++)
+			if (distinct == 0 || !all[i].equals(all[distinct - 1]))
+				all[distinct++] = all[i];
+		return Arrays.copyOf(all, distinct);
+	}
+
+	@Override
+	public int root() {
+		return 0;
+	}
+
+	@Override
+	public int next(int node, char c) {
+		int from = firstChild[node];
+		int to = firstChild[node + 1];
+		if (to - from <= LINEAR_SCAN) {
+			for (int v = from; v < to; v++)
+				if (label[v] == c)
+					return v;
+			return -1;
+		}
+
+		to--;
+		while (from <= to) {
+			int mid = (from + to) >>> 1;
+			if (label[mid] < c)
+				from = mid + 1;
+			else if (label[mid] > c)
+				to = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	@Override
+	public boolean isWord(int node) {
+		return word[node];
+	}
+
+	@Override
+	public int maxLength() {
+		return maxLength;
+	}
+
+	/** Number of characters from the root to the node */
+	public int depth(int node) {
+		return depth[node];
+	}
+
+	/** Number of nodes, they are numbered 0..size()-1 in breadth first order */
+	public int size() {
+		return label.length;
+	}
+
+	@Override
+	public int words() {
+		return words;
+	}
+
+	@Override
+	public void forEachWord(Consumer<? super String> action) {
+		forEachWord(root(), new StringBuilder(), action);
+	}
+
+	private void forEachWord(int node, StringBuilder prefix, Consumer<? super String> action) {
+		if (word[node])
+			action.accept(prefix.toString());
+		for (int v = firstChild[node]; v < firstChild[node + 1]; v++) {
+			prefix.append(label[v]);
+			forEachWord(v, prefix, action);
+			prefix.setLength(prefix.length() - 1);
+		}
+	}
+
+	int firstChild(int node) {
+		return firstChild[node];
+	}
+
+	int endChild(int node) {
+		return firstChild[node + 1];
+	}
+
+	char label(int node) {
+		return label[node];
+	}
+
+}
@@ -1,6 +1,23 @@
 package com.example.words;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import com.example.util.Measured;
 
 /**
  * Find a number of times a word occurs in another word. Sequence of the
@@ -106,6 +123,11 @@ public class WordInWord {
 	 * 
 	 */
 	public static int containsWithFWTable(String what, String where) {
+		return containsWithFWTable(what, where, true);
+	}
+
+	/** The same, printing the rows of the table or not */
+	private static int containsWithFWTable(String what, String where, boolean print) {
 
 		if (what == null || where == null)
 			throw new IllegalArgumentException("Arguments must not be null");
@@ -136,13 +158,292 @@ public class WordInWord {
 
 				result[j][i] = seen;
 			}
-			System.out.println("  " + a + ": " + Arrays.toString(result[j]));
+			if (print)
+				System.out.println("  " + a + ": " + Arrays.toString(result[j]));
 		}
 
 		return result[what.length() - 1][where.length() - 1];
 	}
 
-	public static void main(String[] args) {
+	/** The parallel versions don't split the text into pieces shorter than this */
+	private static final int MIN_CHUNK = 1 << 16;
+
+	/** For every character the 1 based positions j where what has it, descending */
+	private static int[][] positionsOf(String what) {
+		int[][] positions = new int[Character.MAX_VALUE + 1][];
+		for (int j = what.length(); j >= 1; j--) {
+			char c = what.charAt(j - 1);
+			int[] at = positions[c];
+			at = at == null ? new int[1] : Arrays.copyOf(at, at.length + 1);
+			at[at.length - 1] = j;
+			positions[c] = at;
+		}
+		return positions;
+	}
+
+	/**
+	 * The forward table needs only its last column: row[j] is how many times
+	 * the first j characters of 'what' were seen so far (row[0] = 1) and a
+	 * character c adds row[j-1] to row[j] for every j where what has c. A
+	 * single pattern is a chain in the trie of SubsequenceCounter, which does
+	 * exactly this with |what|+1 counters in one pass over the text, exact or
+	 * mod a modulus.
+	 * 
+	 */
+	private static SubsequenceCounter rollingRow(String what, long modulus) {
+		if (what == null)
+			throw new IllegalArgumentException("Arguments must not be null");
+		return new SubsequenceCounter(Collections.singletonList(what), modulus);
+	}
+
+	/** Number of occurrences with the rolling row, exact */
+	public static BigInteger count(String what, Reader where) throws IOException {
+		SubsequenceCounter row = rollingRow(what, 0);
+		row.add(where);
+		return row.count(what);
+	}
+
+	/** Number of occurrences mod modulus with the rolling row */
+	public static long countMod(String what, Reader where, long modulus) throws IOException {
+		if (modulus <= 0)
+			throw new IllegalArgumentException("Modulus must be positive");
+		SubsequenceCounter row = rollingRow(what, modulus);
+		row.add(where);
+		return row.count(what).longValue();
+	}
+
+	/** Number of occurrences in a file read through memory maps, one character per byte */
+	public static BigInteger count(String what, Path where) throws IOException {
+		SubsequenceCounter row = rollingRow(what, 0);
+		row.add(where);
+		return row.count(what);
+	}
+
+	/** The same mod modulus */
+	public static long countMod(String what, Path where, long modulus) throws IOException {
+		if (modulus <= 0)
+			throw new IllegalArgumentException("Modulus must be positive");
+		SubsequenceCounter row = rollingRow(what, modulus);
+		row.add(where);
+		return row.count(what).longValue();
+	}
+
+	/**
+	 * What a piece of text does to the counters of the rolling row: it is a
+	 * linear map, the new row[k] is the sum of T[i][k] * row[i] where T[i][k]
+	 * (i <= k, upper triangular) is how many times what[i..k) occurs in the
+	 * piece. The map of two pieces one after the other is the product of
+	 * their maps, and products are associative, so the pieces can be done on
+	 * different cores and multiplied in any grouping as long as the order
+	 * stays.
+	 * 
+	 * Building a map costs about |what|/2 times the rolling row (every start
+	 * i is counted) and a product is O(|what|^3), so this is for short
+	 * patterns over long texts. Counted mod a modulus up to 2^31 (so a
+	 * product fits in a long) or exactly with BigIntegers. The columns are
+	 * stored as arrays, col[k][i] = T[i][k], so the updates run along arrays.
+	 * 
+	 */
+	private static class Transfer {
+		private final long modulus; // 0 for BigInteger
+		private final long[][] col;
+		private final BigInteger[][] big;
+
+		/** The map of the empty text: identity */
+		Transfer(int length, long modulus) {
+			this.modulus = modulus;
+			if (modulus > 0) {
+				this.col = new long[length + 1][];
+				this.big = null;
+				for (int k = 0; k <= length; k++) {
+					col[k] = new long[k + 1];
+					col[k][k] = 1 % modulus;
+				}
+			} else {
+				this.col = null;
+				this.big = new BigInteger[length + 1][];
+				for (int k = 0; k <= length; k++) {
+					big[k] = new BigInteger[k + 1];
+					Arrays.fill(big[k], BigInteger.ZERO);
+					big[k][k] = BigInteger.ONE;
+				}
+			}
+		}
+
+		/** The map of a piece: every character adds column j-1 to column j where what has it, from the back */
+		static Transfer of(int length, long modulus, int[][] positions, CharSequence piece) {
+			Transfer t = new Transfer(length, modulus);
+			for (int p = 0; p < piece.length(); p++) {
+				int[] at = positions[piece.charAt(p)];
+				if (at == null)
+					continue;
+				for (int j : at) {
+					if (modulus > 0) {
+						long[] to = t.col[j];
+						long[] from = t.col[j - 1];
+						for (int i = 0; i < j; i++) {
+							long s = to[i] + from[i]; // < 2^32
+							to[i] = s >= modulus ? s - modulus : s;
+						}
+					} else {
+						BigInteger[] to = t.big[j];
+						BigInteger[] from = t.big[j - 1];
+						for (int i = 0; i < j; i++)
+							if (from[i].signum() != 0)
+								to[i] = to[i].add(from[i]);
+					}
+				}
+			}
+			return t;
+		}
+
+		/** This piece followed by the next: (this * next)[i][k] = sum of this[i][j] * next[j][k] for i <= j <= k */
+		Transfer then(Transfer next) {
+			int length = modulus > 0 ? col.length - 1 : big.length - 1;
+			Transfer r = new Transfer(length, modulus);
+			for (int k = 0; k <= length; k++) {
+				if (modulus > 0) {
+					long[] out = r.col[k];
+					out[k] = 0;
+					for (int j = 0; j <= k; j++) {
+						long b = next.col[k][j];
+						if (b == 0)
+							continue;
+						long[] a = col[j];
+						for (int i = 0; i <= j; i++)
+							out[i] = (out[i] + a[i] * b) % modulus;
+					}
+				} else {
+					BigInteger[] out = r.big[k];
+					out[k] = BigInteger.ZERO;
+					for (int j = 0; j <= k; j++) {
+						BigInteger b = next.big[k][j];
+						if (b.signum() == 0)
+							continue;
+						BigInteger[] a = big[j];
+						for (int i = 0; i <= j; i++)
+							if (a[i].signum() != 0)
+								out[i] = out[i].add(a[i].multiply(b));
+					}
+				}
+			}
+			return r;
+		}
+
+		/** The count of the whole pattern from an empty row: T[0][length] */
+		BigInteger count() {
+			return modulus > 0 ? BigInteger.valueOf(col[col.length - 1][0]) : big[big.length - 1][0];
+		}
+	}
+
+	/** The bytes of a buffer as ISO-8859-1 characters */
+	private static class Latin1 implements CharSequence {
+		private final ByteBuffer bytes;
+
+		Latin1(ByteBuffer bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public int length() {
+			return bytes.limit();
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) (bytes.get(index) & 0xFF);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new Latin1(bytes.slice(start, end - start));
+		}
+	}
+
+	/** Number of pieces for a text of this length, a few per core */
+	private static int chunks(long length, long maxChunk) {
+		long chunks = Math.max(1, Math.min(4L * ForkJoinPool.getCommonPoolParallelism(), length / MIN_CHUNK));
+		return (int) Math.max(chunks, (length + maxChunk - 1) / maxChunk);
+	}
+
+	private static BigInteger countParallel(String what, CharSequence where, long modulus) {
+		return countParallel(what, where, modulus, chunks(where == null ? 0 : where.length(), Integer.MAX_VALUE));
+	}
+
+	/** The same in the given number of pieces (at most one per character), to check the joins on small inputs */
+	static BigInteger countParallel(String what, CharSequence where, long modulus, int pieces) {
+		if (what == null || where == null)
+			throw new IllegalArgumentException("Arguments must not be null");
+		if (pieces <= 0)
+			throw new IllegalArgumentException("Pieces must be positive");
+		if (what.isEmpty() || where.length() == 0)
+			return BigInteger.ZERO;
+
+		int[][] positions = positionsOf(what);
+		int length = what.length();
+		int n = where.length();
+		int chunks = Math.min(pieces, n);
+		return IntStream.range(0, chunks).parallel()
+				.mapToObj(k -> Transfer.of(length, modulus, positions,
+						where.subSequence((int) ((long) n * k / chunks), (int) ((long) n * (k + 1) / chunks))))
+				.reduce(Transfer::then).get().count();
+	}
+
+	private static BigInteger countParallel(String what, Path where, long modulus) throws IOException {
+		if (what == null || where == null)
+			throw new IllegalArgumentException("Arguments must not be null");
+
+		try (FileChannel channel = FileChannel.open(where, StandardOpenOption.READ)) {
+			long n = channel.size();
+			if (what.isEmpty() || n == 0)
+				return BigInteger.ZERO;
+
+			int[][] positions = positionsOf(what);
+			int length = what.length();
+			int chunks = chunks(n, SubsequenceCounter.MAP_SIZE);
+			return IntStream.range(0, chunks).parallel().mapToObj(k -> {
+				long from = n * k / chunks;
+				long to = n * (k + 1) / chunks;
+				try {
+					return Transfer.of(length, modulus, positions,
+							new Latin1(channel.map(FileChannel.MapMode.READ_ONLY, from, to - from)));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}).reduce(Transfer::then).get().count();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static void checkModulus(long modulus) {
+		if (modulus <= 0 || modulus > 1L << 31)
+			throw new IllegalArgumentException("Modulus must be between 1 and 2^31");
+	}
+
+	/** Number of occurrences with the text split over all cores, exact */
+	public static BigInteger countParallel(String what, CharSequence where) {
+		return countParallel(what, where, 0);
+	}
+
+	/** The same mod modulus, which is at most 2^31 */
+	public static long countParallelMod(String what, CharSequence where, long modulus) {
+		checkModulus(modulus);
+		return countParallel(what, where, modulus).longValue();
+	}
+
+	/** Number of occurrences in a file with the parts mapped and counted on all cores, one character per byte */
+	public static BigInteger countParallel(String what, Path where) throws IOException {
+		return countParallel(what, where, 0);
+	}
+
+	/** The same mod modulus, which is at most 2^31 */
+	public static long countParallelMod(String what, Path where, long modulus) throws IOException {
+		checkModulus(modulus);
+		return countParallel(what, where, modulus).longValue();
+	}
+
+	public static void main(String[] args) throws IOException {
 		
 		int result;
 		
@@ -152,6 +453,93 @@ public class WordInWord {
 		System.out.println("Result: "+result);
 		result = containsWithBWTable("at", "attract");
 		System.out.println("Result: "+result);
+		System.out.println("Result: " + count("at", new StringReader("attract")));
+		System.out.println("Result: " + countParallel("at", "attract"));
+
+		// A 1000 character pattern in 16MB of text over 4 letters, the table would be 64G counters
+		Random r = new Random(1);
+		char[] pattern = new char[1000];
+		for (int i = 0; i < pattern.length; i++)
+			pattern[i] = "acgt".charAt(r.nextInt(4));
+		String what = new String(pattern);
+		byte[] text = new byte[16 << 20];
+		for (int i = 0; i < text.length; i++)
+			text[i] = (byte) "acgt".charAt(r.nextInt(4));
+
+		Path file = Files.createTempFile("where", ".txt");
+		try {
+			Files.write(file, text);
+			Measured.measure("mod 1e9+7 of 16MB", () -> {
+				try {
+					return countMod(what, file, 1_000_000_007L);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			String first = new String(text, 0, 1 << 20, StandardCharsets.ISO_8859_1);
+			Measured.measure("exact of the first 1MB, the first 100 characters", () -> {
+				try {
+					return count(what.substring(0, 100), new StringReader(first)).bitLength() + " bits";
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+
+			// A short pattern, the rolling row against the maps of the pieces on all cores
+			String shortWhat = what.substring(0, 8);
+			Measured.measure("rolling row mod 2^31-1 of 16MB, 8 characters", () -> {
+				try {
+					return countMod(shortWhat, file, Integer.MAX_VALUE);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			Measured.measure("parallel mod 2^31-1 of 16MB, 8 characters", () -> {
+				try {
+					return countParallelMod(shortWhat, file, Integer.MAX_VALUE);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			Measured.measure("parallel exact of 16MB, 8 characters", () -> {
+				try {
+					return countParallel(shortWhat, file).bitLength() + " bits";
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+		} finally {
+			Files.delete(file);
+		}
+
+		// The parallel version on pieces of a few characters against the forward table
+		char[] small = new char[40];
+		for (int i = 0; i < small.length; i++)
+			small[i] = "abc".charAt(r.nextInt(3));
+		String where = new String(small);
+		result = containsWithFWTable("abc", where);
+		System.out.println("Result: " + result + " parallel: " + countParallel("abc", where) + " mod 7: "
+				+ countParallelMod("abc", where, 7) + " = " + result % 7);
+
+		// Random small inputs in up to one piece per character, exact and mod
+		int wrong = 0;
+		for (int t = 0; t < 1000; t++) {
+			char[] w = new char[1 + r.nextInt(4)];
+			for (int i = 0; i < w.length; i++)
+				w[i] = "ab".charAt(r.nextInt(2));
+			char[] s = new char[1 + r.nextInt(40)];
+			for (int i = 0; i < s.length; i++)
+				s[i] = "ab".charAt(r.nextInt(2));
+			String sw = new String(w);
+			String ss = new String(s);
+			int expected = containsWithFWTable(sw, ss, false);
+			int pieces = 1 + r.nextInt(s.length);
+			long modulus = 2 + r.nextInt(50);
+			if (countParallel(sw, ss, 0, pieces).intValueExact() != expected
+					|| countParallel(sw, ss, modulus, pieces).longValue() != expected % modulus)
+				wrong++;
+		}
+		System.out.println("1000 random inputs in pieces, " + wrong + " different from the table");
 	}
 
 }
@@ -1,12 +1,18 @@
 package com.example.words;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.example.util.BoundedCache;
+import com.example.util.Measured;
 
 /**
  * Sample implementation of the infamous word search problem (find out if a
@@ -21,15 +27,62 @@ import java.util.Set;
  */
 public class WordSearcher {
 
-	private Map<String, Integer> runtime;
+	private volatile Map<String, Integer> runtime;
+
+	Set<String> dict; // null over a PrefixDictionary
+
+	/** Keep track of the runs (it costs a substring per run) and print the steps of the tables */
+	private volatile boolean verbose;
+
+	/** Results of memoMadeOf for whole inputs across calls, null if there is none */
+	private volatile BoundedCache<String, Boolean> cache;
 
-	Set<String> dict;
+	/** The words as a trie for the versions that walk the input character by character, made from the Set when
+	 * first used */
+	private volatile PrefixDictionary trie;
 
-	private Map<String, Boolean> memo = new HashMap<String, Boolean>();
+	/** The automata made from the words of the dictionary when first used */
+	private volatile AhoCorasick automaton;
+	private volatile ShiftAndMatcher shiftAnd;
+	private volatile boolean shiftAndTooBig; // the masks would be over ShiftAndMatcher.MAX_MASK_LONGS
 
+	/** The versions looking up substrings see the set as it changes, the trie based ones the words that were in it
+	 * when one of them was first used */
 	public WordSearcher(Set<String> dict) {
 		this.dict = dict;
-		this.runtime = new HashMap<String, Integer>();
+		this.runtime = new ConcurrentHashMap<String, Integer>();
+	}
+
+	/** Searcher over any dictionary, like a mapped DoubleArrayTrie. It must not change. */
+	public WordSearcher(PrefixDictionary dictionary) {
+		this.runtime = new ConcurrentHashMap<String, Integer>();
+		this.trie = dictionary;
+	}
+
+	private PrefixDictionary trie() {
+		PrefixDictionary t = trie;
+		if (t == null) {
+			synchronized (this) {
+				t = trie;
+				if (t == null)
+					trie = t = new Trie(dict);
+			}
+		}
+		return t;
+	}
+
+	/** Is the substring a word, in the Set if there is one */
+	private boolean contains(String w) {
+		return dict != null ? dict.contains(w) : trie.contains(w);
+	}
+
+	/** The words of the dictionary as a list */
+	private List<String> words() {
+		if (dict != null)
+			return new ArrayList<String>(dict);
+		List<String> words = new ArrayList<String>(trie.words());
+		trie.forEachWord(words::add);
+		return words;
 	}
 
 	/**
@@ -55,7 +108,7 @@ public class WordSearcher {
 		boolean result = false;
 		for (int i = 1; i <= s.length(); i++) {
 			String w = s.substring(0, i);
-			if (dict.contains(w)) {
+			if (contains(w)) {
 				result = result || isMadeOf(s.substring(i)); // Note that ||
 																// short
 																// circuits so
@@ -68,34 +121,66 @@ public class WordSearcher {
 	}
 
 	/**
-	 * Memoized version of the naive recursive algorithm - is exactly the same
-	 * as the naive recursive algorithm except for the use of the memo
+	 * Memoized version of the naive recursive algorithm - tries the same
+	 * words as the naive recursive algorithm but every suffix only once
 	 *
-	 * Runtime is O(n) however number of recursions can still be 2^n
+	 * Runtime is O(n * L), L being the longest word
+	 * 
+	 * The memo is per call and keyed by the start of the suffix in the input:
+	 * a bitset of 'can be split'. Every suffix only needs the memo of shorter
+	 * ones, so instead of recursing (one stack frame per character) the memo
+	 * is filled right to left, the suffix from i can be split if a word from i
+	 * is followed by one that can. The words are found by walking the trie so
+	 * there are no substrings either. Nothing is kept between calls (except in
+	 * the cache if there is one) so the searcher can be shared by threads.
 	 * 
 	 */
 	public boolean memoMadeOf(String s) {
 		assert s != null;
 
-		Boolean mmo = memo.get(s);
-		if (mmo != null) {
-			return mmo.booleanValue();
-		}
-
-		markRun(s);
-		if ("".equals(s))
-			return true;
+		BoundedCache<String, Boolean> c = cache;
+		if (c != null)
+			return c.computeIfAbsent(s, this::memoSearch);
+		return memoSearch(s);
+	}
 
-		boolean result = false;
-		for (int i = 1; i <= s.length(); i++) {
-			String w = s.substring(0, i);
-			if (dict.contains(w)) {
-				result = result || memoMadeOf(s.substring(i));
+	private boolean memoSearch(String s) {
+		PrefixDictionary trie = trie();
+		int n = s.length();
+		long[] splits = new long[(n >> 6) + 1];
+		splits[n >> 6] |= 1L << n;
+		markRun(s, n);
+
+		for (int start = n - 1; start >= 0; start--) {
+			markRun(s, start);
+			int node = trie.root();
+			for (int i = start; i < n; i++) {
+				node = trie.next(node, s.charAt(i));
+				if (node < 0)
+					break; // no more words from here
+				if (trie.isWord(node) && (splits[(i + 1) >> 6] & (1L << (i + 1))) != 0) {
+					splits[start >> 6] |= 1L << start;
+					break;
+				}
 			}
 		}
 
-		memo.put(s, result);
-		return result;
+		return (splits[0] & 1L) != 0;
+	}
+
+	/**
+	 * Keeps the results of memoMadeOf for up to maxEntries whole inputs across
+	 * calls, for inputs that come up again and again. With TinyLFU a new input
+	 * only replaces the least recently used one if it's asked more often. 0
+	 * turns the cache off.
+	 */
+	public void setCache(int maxEntries, boolean tinyLfu) {
+		cache = maxEntries > 0 ? new BoundedCache<String, Boolean>(maxEntries, tinyLfu) : null;
+	}
+
+	/** The cache of memoMadeOf with its hit rate, null if there is none */
+	public BoundedCache<String, Boolean> getCache() {
+		return cache;
 	}
 
 	/**
@@ -120,19 +205,192 @@ public class WordSearcher {
 				// Because we work backwards on i we know that already so we can
 				// use res[i+j] from the table
 
-				System.out.print("i: " + i + " j: " + j);
-
 				String test = s.substring(i, i + j);
-				System.out.println(" test: " + test + " (" + dict.contains(test) + ") res[i+j]: " + res[i + j]);
+				if (verbose)
+					System.out.println("i: " + i + " j: " + j + " test: " + test + " (" + contains(test) + ") res[i+j]: " + res[i + j]);
 
-				res[i] = res[i] || dict.contains(test) && res[i + j];
+				res[i] = res[i] || contains(test) && res[i + j];
 			}
-			System.out.println(i + " is " + res[i]);
+			if (verbose)
+				System.out.println(i + " is " + res[i]);
 		}
 
 		return res[0];
 	}
 
+	/**
+	 * The table based algorithm working forward without substrings: from every
+	 * position that can be reached with whole words it walks the trie with the
+	 * following characters and every word it passes makes its end reachable.
+	 * 
+	 * Only dictionary prefixes are walked so the work at a position stops at
+	 * the longest word starting there. Runtime is O(n * L) for the longest
+	 * word length L instead of quadratic.
+	 * 
+	 */
+	public boolean trieMadeOf(String s) {
+		assert s != null;
+
+		PrefixDictionary trie = trie();
+		int n = s.length();
+		boolean[] reachable = new boolean[n + 1];
+		reachable[0] = true;
+
+		for (int i = 0; i < n; i++) {
+			if (!reachable[i])
+				continue;
+
+			int node = trie.root();
+			for (int j = i; j < n; j++) {
+				node = trie.next(node, s.charAt(j));
+				if (node < 0)
+					break; // no word goes on like this
+				if (trie.isWord(node))
+					reachable[j + 1] = true;
+			}
+		}
+
+		return reachable[n];
+	}
+
+	/**
+	 * One split of the string into words like trieMadeOf, null if there is
+	 * none. Every position remembers the first reachable position with a word
+	 * up to it, so of all splits this has the longest last word, then the
+	 * longest word before it and so on. Only the words of the result are
+	 * substrings, nothing is printed or tracked.
+	 * 
+	 */
+	public String[] segment(String s) {
+		assert s != null;
+
+		PrefixDictionary trie = trie();
+		int n = s.length();
+		int[] from = new int[n + 1]; // start of the word ending at i, -1 if i can't be reached
+		Arrays.fill(from, -1);
+		from[0] = 0;
+
+		for (int i = 0; i < n && from[n] < 0; i++) {
+			if (from[i] < 0)
+				continue;
+
+			int node = trie.root();
+			for (int j = i; j < n; j++) {
+				node = trie.next(node, s.charAt(j));
+				if (node < 0)
+					break;
+				if (trie.isWord(node) && from[j + 1] < 0)
+					from[j + 1] = i;
+			}
+		}
+		if (from[n] < 0)
+			return null;
+
+		int count = 0;
+		for (int i = n; i > 0; i = from[i])
+			count++;
+		String[] words = new String[count];
+		for (int i = n; i > 0; i = from[i])
+			words[--count] = s.substring(from[i], i);
+		return words;
+	}
+
+	/**
+	 * The same in a single left to right pass with the Aho-Corasick automaton:
+	 * after reading the character at i it knows every word ending at i, and
+	 * i+1 is reachable if one of them starts at a reachable position.
+	 * 
+	 * The automaton is made over a Trie, other dictionaries are copied into
+	 * one first.
+	 * 
+	 */
+	public boolean ahoCorasickMadeOf(String s) {
+		assert s != null;
+
+		AhoCorasick automaton = automaton();
+		int n = s.length();
+		boolean[] reachable = new boolean[n + 1];
+		reachable[0] = true;
+
+		int state = automaton.start();
+		for (int i = 0; i < n; i++) {
+			state = automaton.step(state, s.charAt(i));
+			for (int w = automaton.firstWord(state); w >= 0 && !reachable[i + 1]; w = automaton.nextWord(w))
+				reachable[i + 1] = reachable[i + 1 - automaton.length(w)];
+		}
+
+		return reachable[n];
+	}
+
+	private AhoCorasick automaton() {
+		AhoCorasick a = automaton;
+		if (a == null) {
+			synchronized (this) {
+				a = automaton;
+				if (a == null) {
+					PrefixDictionary t = trie();
+					automaton = a = new AhoCorasick(t instanceof Trie ? (Trie) t : new Trie(words()));
+				}
+			}
+		}
+		return a;
+	}
+
+	/**
+	 * Bit-parallel version, see ShiftAndMatcher: the partial words alive at a
+	 * position are bits of a few longs and a character moves all of them at
+	 * once.
+	 * 
+	 * The masks take alphabet * total length of the words bits, dictionaries
+	 * where that is over ShiftAndMatcher.MAX_MASK_LONGS are searched with
+	 * trieMadeOf instead.
+	 * 
+	 */
+	public boolean shiftAndMadeOf(String s) {
+		assert s != null;
+
+		ShiftAndMatcher m = shiftAnd();
+		return m != null ? m.isMadeOf(s) : trieMadeOf(s);
+	}
+
+	/** The matcher, null if the dictionary is too big for it */
+	private ShiftAndMatcher shiftAnd() {
+		ShiftAndMatcher m = shiftAnd;
+		if (m == null && !shiftAndTooBig) {
+			synchronized (this) {
+				m = shiftAnd;
+				if (m == null && !shiftAndTooBig) {
+					List<String> words = words();
+					if (ShiftAndMatcher.maskLongs(words) > ShiftAndMatcher.MAX_MASK_LONGS)
+						shiftAndTooBig = true;
+					else
+						shiftAnd = m = new ShiftAndMatcher(words);
+				}
+			}
+		}
+		return m;
+	}
+
+	/** Is the string made of words with the given algorithm */
+	public boolean madeOf(String s, SearchMode mode) {
+		switch (mode) {
+		case NAIVE:
+			return isMadeOf(s);
+		case MEMO:
+			return memoMadeOf(s);
+		case TABLE:
+			return tableMadeOf(s);
+		case TRIE:
+			return trieMadeOf(s);
+		case AHO_CORASICK:
+			return ahoCorasickMadeOf(s);
+		case SHIFT_AND:
+			return shiftAndMadeOf(s);
+		default:
+			throw new IllegalArgumentException("Unknown mode " + mode);
+		}
+	}
+
 	/**
 	 * This is an enhancement of the table based algorithm that also keeps track
 	 * of the actual strings and in the end produces all words that could make
@@ -143,6 +401,10 @@ public class WordSearcher {
 	 * for the substring at index [i]. If substring(i->s.lenght) cannot be split
 	 * res[i] is an empty array
 	 * 
+	 * The number of splits grows exponentially with the length, for long
+	 * strings use countSplits, splits or bestSplits which work on the graph of
+	 * the words instead.
+	 * 
 	 * @param s
 	 * @return
 	 */
@@ -155,12 +417,11 @@ public class WordSearcher {
 			List<String> rs = new ArrayList<String>();
 
 			for (int j = 1; j <= s.length() - i; j++) {
-				System.out.print("i: " + i + " j: " + j);
-
 				String test = s.substring(i, i + j);
-				System.out.println(" test: " + test + " (" + dict.contains(test) + ")");
+				if (verbose)
+					System.out.println("i: " + i + " j: " + j + " test: " + test + " (" + contains(test) + ")");
 
-				if (dict.contains(test)) {
+				if (contains(test)) {
 					if (i + j < s.length()) {
 						// We combine in res[i+j]. Note that if res[i+j] cannot
 						// be split
@@ -175,17 +436,52 @@ public class WordSearcher {
 				}
 			}
 
-			System.out.println("" + i + " -> " + rs.toString());
+			if (verbose)
+				System.out.println("" + i + " -> " + rs.toString());
 			res[i] = rs.toArray(new String[0]);
 		}
 
 		return res[0];
 	}
 
+	/** The graph of all splits, the words of the string as edges between positions */
+	public SplitGraph splitGraph(String s) {
+		assert s != null;
+		return new SplitGraph(trie(), s);
+	}
+
+	/** Number of different splits in O(n*L) steps without making any of them */
+	public BigInteger countSplits(String s) {
+		return splitGraph(s).countSplits();
+	}
+
+	/** All splits like splitAll in the same order, but made one at a time when iterated */
+	public Iterable<String[]> splits(String s) {
+		SplitGraph graph = splitGraph(s);
+		return graph::iterator;
+	}
+
+	/** The k splits with the fewest words */
+	public List<String[]> bestSplits(String s, int k) {
+		return splitGraph(s).best(k);
+	}
+
 	/** Helper method to mark what substring was looked at and how many times */
 	private void markRun(String s) {
-		int rt = runtime.getOrDefault(s, new Integer(0)).intValue();
-		runtime.put(s, rt + 1);
+		if (verbose)
+			runtime.merge(s, 1, Integer::sum);
+	}
+
+	/** Same for the suffix from 'start' */
+	private void markRun(String s, int start) {
+		if (verbose)
+			markRun(s.substring(start));
+	}
+
+	/** Turns keeping track of the runs and printing the table steps on or off. Off by default, it costs a substring
+	 * per run and the runs add up until dumpRuntime. */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
 	}
 	
 	/** Helper method to mark what substring was looked at and how many times. Dumps and resets. */
@@ -194,7 +490,7 @@ public class WordSearcher {
 			System.out.println("run " + k + " x " + v);
 		});
 
-		runtime = new HashMap<String, Integer>();
+		runtime = new ConcurrentHashMap<String, Integer>();
 	}
 
 	public static void main(String[] args) {
@@ -206,6 +502,7 @@ public class WordSearcher {
 		boolean result;
 
 		WordSearcher ws = new WordSearcher(dict);
+		ws.setVerbose(true);
 		result = ws.isMadeOf("aaaaab");
 		System.out.println(result);
 		ws.dumpRuntime();
@@ -214,11 +511,110 @@ public class WordSearcher {
 		System.out.println(result);
 		ws.dumpRuntime();
 
+		cacheDemo();
+
 		result = ws.tableMadeOf("aaaaab");
 		System.out.println(result);
 
 		String[] splits = ws.splitAll("aaaaaaaaaaa");
 		System.out.println(Arrays.toString(splits));
+		splitsDemo(ws);
+
+		System.out.println(ws.trieMadeOf("aaaaab") + " " + ws.ahoCorasickMadeOf("aaaaab"));
+		System.out.println(ws.trieMadeOf("aaaaaaaaaaa") + " " + ws.ahoCorasickMadeOf("aaaaaaaaaaa"));
+
+		benchmark();
+	}
+
+	/** Counting, walking and ranking the splits of a string far too long for splitAll */
+	private static void splitsDemo(WordSearcher ws) {
+		String s = "aaaaaaaaaaa";
+		System.out.println(s + ": " + ws.countSplits(s) + " splits");
+
+		char[] c = new char[1000];
+		Arrays.fill(c, 'a');
+		String longer = new String(c);
+		Measured.measure("count " + longer.length(), () -> ws.countSplits(longer).bitLength() + " bits");
+
+		Iterator<String[]> it = ws.splits(longer).iterator();
+		for (int i = 0; i < 3; i++) {
+			String[] words = it.next();
+			System.out.println(words.length + " words, last " + words[words.length - 1]);
+		}
+		for (String[] best : ws.bestSplits(longer.substring(0, 20), 3))
+			System.out.println(String.join(" ", best));
+	}
+
+	/** The same inputs coming up again and again among lots of one time ones, with the LRU and TinyLFU caches */
+	private static void cacheDemo() {
+		HashSet<String> dict = new HashSet<String>(Arrays.asList("a", "b", "ab", "ba", "aab", "bba", "abab"));
+		Random r = new Random(7);
+		String[] popular = new String[200];
+		for (int i = 0; i < popular.length; i++)
+			popular[i] = randomString(r, 200 + r.nextInt(200));
+		String[] inputs = new String[200000];
+		for (int i = 0; i < inputs.length; i++)
+			inputs[i] = r.nextInt(10) < 6 ? popular[r.nextInt(popular.length)] : randomString(r, 300);
+
+		for (boolean tinyLfu : new boolean[] { false, true }) {
+			WordSearcher ws = new WordSearcher(dict);
+			ws.setCache(100, tinyLfu);
+			Measured.measure(inputs.length + " inputs", () -> Arrays.stream(inputs).parallel().filter(ws::memoMadeOf).count());
+			System.out.println(ws.getCache());
+		}
+	}
+
+	private static String randomString(Random r, int length) {
+		char[] c = new char[length];
+		for (int i = 0; i < length; i++)
+			c[i] = r.nextInt(500) == 0 ? 'c' : (char) ('a' + r.nextInt(2));
+		return new String(c);
+	}
+
+	/** A big random dictionary and a long input made of its words, and the worst case of a..ab */
+	private static void benchmark() {
+		Random r = new Random(1);
+		HashSet<String> big = new HashSet<String>();
+		while (big.size() < 500000) {
+			char[] w = new char[3 + r.nextInt(8)];
+			for (int i = 0; i < w.length; i++)
+				w[i] = (char) ('a' + r.nextInt(26));
+			big.add(new String(w));
+		}
+		String[] words = big.toArray(new String[0]);
+
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < 100000)
+			sb.append(words[r.nextInt(words.length)]);
+		final String text = sb.toString();
+
+		final WordSearcher ws = Measured.measure("building the trie of 500000 words", () -> new WordSearcher(new Trie(big)));
+		Measured.measure("trie of 100KB", () -> ws.trieMadeOf(text));
+		Measured.measure("Aho-Corasick of 100KB", () -> ws.ahoCorasickMadeOf(text));
+		Measured.measure("trie of 100KB + #", () -> ws.trieMadeOf(text + "#"));
+		Measured.measure("Aho-Corasick of 100KB + #", () -> ws.ahoCorasickMadeOf(text + "#"));
+
+		HashSet<String> prefixes = new HashSet<String>();
+		for (int i = 1; i <= 100; i++)
+			prefixes.add("a".repeat(i));
+		final WordSearcher worst = new WordSearcher(prefixes);
+		final String as = "a".repeat(100000) + "b";
+		Measured.measure("trie of a..ab", () -> worst.trieMadeOf(as));
+		Measured.measure("Aho-Corasick of a..ab", () -> worst.ahoCorasickMadeOf(as));
+		Measured.measure("shift-and of a..ab", () -> worst.shiftAndMadeOf(as));
+
+		// The modes on a..ab with dictionaries of a few short words, the table (quadratic) only gets a short input
+		final String shortInput = "a".repeat(1000) + "b";
+		final String longInput = "a".repeat(1000000) + "b";
+		for (int length : new int[] { 4, 8, 16, 32 }) {
+			HashSet<String> small = new HashSet<String>();
+			for (int i = 1; i <= length; i++)
+				small.add("a".repeat(i));
+			final WordSearcher searcher = new WordSearcher(small);
+			Measured.measure("TABLE of 1000 a..ab, words up to " + length, () -> searcher.madeOf(shortInput, SearchMode.TABLE));
+			for (SearchMode mode : new SearchMode[] { SearchMode.TRIE, SearchMode.AHO_CORASICK, SearchMode.SHIFT_AND })
+				Measured.measure(mode + " of 1M a..ab, words up to " + length, () -> searcher.madeOf(longInput, mode));
+		}
 
 	}
 